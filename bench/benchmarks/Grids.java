@@ -0,0 +1,31 @@
+package benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Benchmark instances: grid0-grid4 from PublicTests plus larger hand-made ones
+final class Grids {
+
+  static final Map<String, String> ALL = new LinkedHashMap<>();
+
+  static {
+    ALL.put("grid0", "3;4;r,y,r,y;y,r,y,r;e,e,e,e;");
+    ALL.put("grid1", "5;4;b,y,r,b;b,y,r,r;y,r,b,y;e,e,e,e;e,e,e,e;");
+    ALL.put("grid2", "5;4;b,r,o,b;b,r,o,o;r,o,b,r;e,e,e,e;e,e,e,e;");
+    ALL.put("grid3", "6;4;g,g,g,r;g,y,r,o;o,r,o,y;y,o,y,b;r,b,b,b;e,e,e,e;");
+    ALL.put("grid4", "6;3;r,r,y;b,y,r;y,b,g;g,g,b;e,e,e;e,e,e;");
+    ALL.put("large0", "7;4;r,b,g,y;y,g,b,r;b,r,y,g;g,y,r,b;o,o,o,o;e,e,e,e;e,e,e,e;");
+    ALL.put("large1", "8;4;r,b,g,y;y,o,b,r;b,r,p,g;g,y,r,b;o,p,o,y;p,g,o,p;e,e,e,e;e,e,e,e;");
+  }
+
+  private Grids() {
+  }
+
+  static String get(String name) {
+    String grid = ALL.get(name);
+    if (grid == null) {
+      throw new IllegalArgumentException("Unknown benchmark grid: " + name);
+    }
+    return grid;
+  }
+}
@@ -0,0 +1,99 @@
+package benchmarks;
+
+import code.Bottle;
+import code.MisplacedLayersHeuristic;
+import code.Node;
+import code.NonHomogeneousHeuristic;
+import code.StateLayout;
+import code.WaterSortSearch;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// State primitives the searches spend their time in, measured on the root of a grid
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PrimitivesBenchmark {
+
+  @Param({ "grid3", "large1" })
+  public String grid;
+
+  private WaterSortSearch problem;
+  private StateLayout layout;
+  private Node root;
+  private Node rootCopy;
+  private long[] state;
+  private Bottle source;
+  private Bottle target;
+  private final MisplacedLayersHeuristic misplaced = new MisplacedLayersHeuristic();
+  private final NonHomogeneousHeuristic nonHomogeneous = new NonHomogeneousHeuristic();
+
+  @Setup
+  public void setup() {
+    problem = new WaterSortSearch(Grids.get(grid));
+    layout = problem.getLayout();
+    root = problem.getInitialState();
+    rootCopy = problem.restoreNode(root.getState().clone());
+    state = root.getState();
+
+    source = new Bottle(4);
+    source.addLayer("r");
+    source.addLayer("r");
+    target = new Bottle(4);
+  }
+
+  // Pours two layers over and back so every invocation sees the same bottles
+  @Benchmark
+  public int bottlePourInto() {
+    return source.pourInto(target) + target.pourInto(source);
+  }
+
+  @Benchmark
+  public int nodeHashCode() {
+    return root.hashCode();
+  }
+
+  @Benchmark
+  public boolean nodeEquals() {
+    return root.equals(rootCopy);
+  }
+
+  @Benchmark
+  public List<Node> expandNode() {
+    return problem.expandNode(root);
+  }
+
+  @Benchmark
+  public long[] layoutPour() {
+    return layout.pour(state, 0, layout.getBottleCount() - 1, 1);
+  }
+
+  @Benchmark
+  public long layoutPourHash() {
+    return layout.pourHash(root.getHash(), state, 0, layout.getBottleCount() - 1, 1);
+  }
+
+  @Benchmark
+  public int misplacedLayersHeuristic() {
+    return misplaced.estimate(layout, state);
+  }
+
+  @Benchmark
+  public int nonHomogeneousHeuristic() {
+    return nonHomogeneous.estimate(layout, state);
+  }
+}
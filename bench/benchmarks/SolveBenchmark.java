@@ -0,0 +1,43 @@
+package benchmarks;
+
+import code.WaterSortSearch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end WaterSortSearch.solve for the eight original strategy codes on every grid
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class SolveBenchmark {
+
+  @Param({ "BF", "DF", "UC", "ID", "GR1", "GR2", "AS1", "AS2" })
+  public String strategy;
+
+  @Param({ "grid0", "grid1", "grid2", "grid3", "grid4", "large0", "large1" })
+  public String grid;
+
+  private String initialState;
+
+  @Setup
+  public void setup() {
+    initialState = Grids.get(grid);
+  }
+
+  @Benchmark
+  public String solve() {
+    return WaterSortSearch.solve(initialState, strategy, false);
+  }
+}
@@ -0,0 +1,321 @@
+package code;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Solves a stream of (grid, strategy) jobs concurrently. Every job gets its own
+// WaterSortSearch, so metrics never mix between jobs. At most maxInFlight jobs are
+// submitted and not yet handed to the sink, which keeps a long job stream from
+// piling up in memory; in ordered mode that includes finished jobs waiting for an
+// earlier one. Outcomes are delivered on the calling thread, in job order or as they
+// finish. A timed out job is cancelled through GenericSearch.cancel and reported
+// with the metrics it had reached. Every submitted job is delivered exactly once,
+// as CANCELLED if the solver is closed before the job finishes.
+public class BatchSolver implements AutoCloseable {
+
+  public enum Status {
+    SOLVED,
+    NO_SOLUTION,
+    TIMED_OUT,
+    FAILED,
+    // The solver was closed before the job finished
+    CANCELLED
+  }
+
+  public static class Job {
+
+    private final String grid;
+    private final String strategy;
+    private final long timeoutMillis;
+
+    // Uses the solver's default timeout
+    public Job(String grid, String strategy) {
+      this(grid, strategy, -1);
+    }
+
+    // A timeout of 0 means none
+    public Job(String grid, String strategy, long timeoutMillis) {
+      this.grid = grid;
+      this.strategy = strategy;
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getGrid() {
+      return grid;
+    }
+
+    public String getStrategy() {
+      return strategy;
+    }
+
+    public long getTimeoutMillis() {
+      return timeoutMillis;
+    }
+  }
+
+  public static class Outcome {
+
+    private final int index;
+    private final Job job;
+    private final Status status;
+    private final SearchResult result;
+    private final SearchMetrics metrics;
+    private final Throwable error;
+    private final long nanos;
+
+    Outcome(int index, Job job, Status status, SearchResult result, SearchMetrics metrics, Throwable error,
+        long nanos) {
+      this.index = index;
+      this.job = job;
+      this.status = status;
+      this.result = result;
+      this.metrics = metrics;
+      this.error = error;
+      this.nanos = nanos;
+    }
+
+    // Position of the job in the submitted stream
+    public int getIndex() {
+      return index;
+    }
+
+    public Job getJob() {
+      return job;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    // Null unless the search ran to the end
+    public SearchResult getResult() {
+      return result;
+    }
+
+    // Null if the grid could not be parsed or the job was cancelled before it ran
+    public SearchMetrics getMetrics() {
+      return metrics;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    // "plan;cost;expanded" or NOSOLUTION like WaterSortSearch.solve, TIMEOUT, CANCELLED or
+    // ERROR otherwise
+    @Override
+    public String toString() {
+      switch (status) {
+        case SOLVED:
+        case NO_SOLUTION:
+          return result.toString();
+        case TIMED_OUT:
+          return "TIMEOUT";
+        case CANCELLED:
+          return "CANCELLED";
+        default:
+          return "ERROR";
+      }
+    }
+  }
+
+  private final ExecutorService pool;
+  private final boolean virtualThreads;
+  private final ScheduledExecutorService timer;
+  private final int maxInFlight;
+  private final long defaultTimeoutMillis;
+  private final Set<GenericSearch> running = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed;
+
+  public BatchSolver(int threads, int maxInFlight, long defaultTimeoutMillis, boolean virtualThreads) {
+    if (threads < 1 || maxInFlight < 1) {
+      throw new IllegalArgumentException("Batch solving needs at least one thread and one job in flight");
+    }
+    if (defaultTimeoutMillis < 0) {
+      throw new IllegalArgumentException("Timeout must not be negative");
+    }
+    // Virtual threads run as many jobs at once as are in flight, platform threads use a fixed pool
+    ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+    this.virtualThreads = virtual != null;
+    this.pool = virtual != null ? virtual : Executors.newFixedThreadPool(threads, daemonThreads("batch-solver"));
+    this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("batch-timeout"));
+    this.maxInFlight = maxInFlight;
+    this.defaultTimeoutMillis = defaultTimeoutMillis;
+  }
+
+  // -Dwatersort.batch.threads (default -Dwatersort.threads), -Dwatersort.batch.maxInFlight
+  // (default four jobs per thread), -Dwatersort.batch.timeoutMillis (default 0, none) and
+  // -Dwatersort.batch.virtualThreads (default true, used when the JDK has them)
+  public static BatchSolver fromSystemProperties() {
+    int threads = Integer.getInteger("watersort.batch.threads", HashDistributedSearch.defaultThreads());
+    String virtual = System.getProperty("watersort.batch.virtualThreads", "true");
+    return new BatchSolver(threads, Integer.getInteger("watersort.batch.maxInFlight", threads * 4),
+        Long.getLong("watersort.batch.timeoutMillis", 0), Boolean.parseBoolean(virtual));
+  }
+
+  // Virtual threads exist from JDK 21 on; the build targets older JDKs, so they are
+  // looked up reflectively and null is returned without them
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    ThreadFactory defaults = Executors.defaultThreadFactory();
+    return runnable -> {
+      Thread thread = defaults.newThread(runnable);
+      thread.setName(name + "-" + thread.getName());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  public boolean usesVirtualThreads() {
+    return virtualThreads;
+  }
+
+  public List<Outcome> solveAll(List<Job> jobs) throws InterruptedException {
+    List<Outcome> outcomes = new ArrayList<>(jobs.size());
+    solve(jobs.iterator(), true, outcomes::add);
+    return outcomes;
+  }
+
+  public void solve(Stream<Job> jobs, boolean ordered, Consumer<Outcome> sink) throws InterruptedException {
+    solve(jobs.iterator(), ordered, sink);
+  }
+
+  // Blocks until every job has been handed to sink. Jobs are pulled from the iterator
+  // only while fewer than maxInFlight are outstanding, and no longer once the solver
+  // is closed.
+  public void solve(Iterator<Job> jobs, boolean ordered, Consumer<Outcome> sink) throws InterruptedException {
+    BlockingQueue<Outcome> finished = new LinkedBlockingQueue<>();
+    // Finished jobs held back until all earlier ones are delivered (ordered mode)
+    Map<Integer, Outcome> held = new HashMap<>();
+    int submitted = 0;
+    int delivered = 0;
+    while (!closed && jobs.hasNext()) {
+      while (submitted - delivered >= maxInFlight) {
+        delivered += deliver(finished.take(), ordered, held, delivered, sink);
+      }
+      Task task = new Task(submitted++, jobs.next(), finished);
+      try {
+        pool.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.cancel();
+      }
+    }
+    while (delivered < submitted) {
+      delivered += deliver(finished.take(), ordered, held, delivered, sink);
+    }
+  }
+
+  private static int deliver(Outcome outcome, boolean ordered, Map<Integer, Outcome> held, int delivered,
+      Consumer<Outcome> sink) {
+    if (!ordered) {
+      sink.accept(outcome);
+      return 1;
+    }
+    held.put(outcome.getIndex(), outcome);
+    int count = 0;
+    Outcome next;
+    while ((next = held.remove(delivered + count)) != null) {
+      sink.accept(next);
+      count++;
+    }
+    return count;
+  }
+
+  // One submitted job. It posts exactly one outcome: when it runs, or when close()
+  // takes it off the queue before it started.
+  private class Task implements Runnable {
+
+    final int index;
+    final Job job;
+    final BlockingQueue<Outcome> finished;
+
+    Task(int index, Job job, BlockingQueue<Outcome> finished) {
+      this.index = index;
+      this.job = job;
+      this.finished = finished;
+    }
+
+    @Override
+    public void run() {
+      finished.add(BatchSolver.this.run(index, job));
+    }
+
+    void cancel() {
+      finished.add(new Outcome(index, job, Status.CANCELLED, null, null, null, 0));
+    }
+  }
+
+  private Outcome run(int index, Job job) {
+    long start = System.nanoTime();
+    if (closed) {
+      return new Outcome(index, job, Status.CANCELLED, null, null, null, 0);
+    }
+    WaterSortSearch search;
+    try {
+      search = new WaterSortSearch(job.getGrid());
+    } catch (Throwable e) {
+      return new Outcome(index, job, Status.FAILED, null, null, e, System.nanoTime() - start);
+    }
+
+    long timeoutMillis = job.getTimeoutMillis() < 0 ? defaultTimeoutMillis : job.getTimeoutMillis();
+    running.add(search);
+    ScheduledFuture<?> deadline = null;
+    try {
+      if (timeoutMillis > 0) {
+        try {
+          deadline = timer.schedule(search::cancel, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          // The timer was shut down by close(), checked right below
+        }
+      }
+      if (closed) {
+        // close() may have walked the running set before this search joined it
+        search.cancel();
+      }
+      SearchResult result = search.solve(job.getStrategy());
+      Status status = result.isSolved() ? Status.SOLVED : Status.NO_SOLUTION;
+      return new Outcome(index, job, status, result, result.getMetrics(), null, System.nanoTime() - start);
+    } catch (CancellationException e) {
+      Status status = closed ? Status.CANCELLED : Status.TIMED_OUT;
+      return new Outcome(index, job, status, null, search.getMetrics(), e, System.nanoTime() - start);
+    } catch (Throwable e) {
+      return new Outcome(index, job, Status.FAILED, null, search.getMetrics(), e, System.nanoTime() - start);
+    } finally {
+      running.remove(search);
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+    }
+  }
+
+  // Running jobs are cancelled and queued ones dropped; both are delivered as CANCELLED
+  // to a solve call still waiting for them
+  @Override
+  public void close() {
+    closed = true;
+    for (Runnable task : pool.shutdownNow()) {
+      if (task instanceof Task) {
+        ((Task) task).cancel();
+      }
+    }
+    for (GenericSearch search : running) {
+      search.cancel();
+    }
+    timer.shutdownNow();
+  }
+}
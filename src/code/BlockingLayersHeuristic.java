@@ -0,0 +1,70 @@
+package code;
+
+import java.util.*;
+
+// Third Heuristic: layers that must be poured at least once. A layer resting on a
+// different color has to move before its bottle can be sorted. Of the same-color
+// runs at the bottom of bottles, a color with n * capacity layers can keep at most
+// its n longest runs in place, every other run has to move as well. Each pour of
+// k layers lowers the count by at most k, so the estimate is also consistent.
+public class BlockingLayersHeuristic implements Heuristic {
+
+  @Override
+  public int estimate(StateLayout layout, long[] state) {
+    int colors = layout.getColorCount();
+    int capacity = layout.getCapacity();
+    int bottleCount = layout.getBottleCount();
+    int[] colorLayers = new int[colors + 1];
+    int[] bottomRuns = new int[bottleCount];
+    int[] bottomColors = new int[bottleCount];
+    int blocking = 0;
+
+    for (int b = 0; b < bottleCount; b++) {
+      long bottle = layout.bottle(state, b);
+      int fill = layout.fill(bottle);
+      if (fill == 0) {
+        continue;
+      }
+      for (int k = 0; k < fill; k++) {
+        colorLayers[layout.layer(bottle, k)]++;
+      }
+      bottomColors[b] = layout.layer(bottle, 0);
+      bottomRuns[b] = layout.bottomRun(bottle);
+      blocking += fill - bottomRuns[b];
+    }
+
+    for (int color = 1; color <= colors; color++) {
+      int keep = colorLayers[color] / capacity;
+      int runs = 0;
+      int total = 0;
+      for (int b = 0; b < bottleCount; b++) {
+        if (bottomColors[b] == color) {
+          runs++;
+          total += bottomRuns[b];
+        }
+      }
+      if (runs <= keep) {
+        continue;
+      }
+      // Everything except the keep longest bottom runs of this color moves
+      int[] lengths = new int[runs];
+      int n = 0;
+      for (int b = 0; b < bottleCount; b++) {
+        if (bottomColors[b] == color) {
+          lengths[n++] = bottomRuns[b];
+        }
+      }
+      Arrays.sort(lengths);
+      for (int i = 0; i < keep; i++) {
+        total -= lengths[runs - 1 - i];
+      }
+      blocking += total;
+    }
+    return blocking;
+  }
+
+  @Override
+  public boolean isAdmissible() {
+    return true;
+  }
+}
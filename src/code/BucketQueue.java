@@ -0,0 +1,71 @@
+package code;
+
+import java.util.*;
+
+// Monotone-friendly priority queue for small non-negative integer priorities.
+// Items are kept in one bucket per (priority, tieBreak) pair and popped from the
+// lowest priority first, then the lowest tie-break value, in O(1) amortized time.
+public class BucketQueue<T> {
+
+  private final List<List<ArrayDeque<T>>> buckets = new ArrayList<>();
+  private int[] bucketSizes = new int[16];
+  private int minPriority = Integer.MAX_VALUE;
+  private int size;
+
+  public void add(T item, int priority, int tieBreak) {
+    if (priority < 0 || tieBreak < 0) {
+      throw new IllegalArgumentException("Bucket queue priorities must be non-negative");
+    }
+    while (buckets.size() <= priority) {
+      buckets.add(new ArrayList<>());
+    }
+    if (bucketSizes.length <= priority) {
+      bucketSizes = Arrays.copyOf(bucketSizes, Math.max(priority + 1, bucketSizes.length * 2));
+    }
+    List<ArrayDeque<T>> level = buckets.get(priority);
+    while (level.size() <= tieBreak) {
+      level.add(new ArrayDeque<>());
+    }
+    // FIFO inside a bucket keeps generation order among equal (priority, tieBreak) pairs
+    level.get(tieBreak).addLast(item);
+    bucketSizes[priority]++;
+    minPriority = Math.min(minPriority, priority);
+    size++;
+  }
+
+  public T poll() {
+    if (size == 0) {
+      return null;
+    }
+    while (bucketSizes[minPriority] == 0) {
+      minPriority++;
+    }
+    List<ArrayDeque<T>> level = buckets.get(minPriority);
+    for (ArrayDeque<T> bucket : level) {
+      if (!bucket.isEmpty()) {
+        bucketSizes[minPriority]--;
+        size--;
+        return bucket.pollFirst();
+      }
+    }
+    throw new IllegalStateException("Bucket queue size is out of sync");
+  }
+
+  public int peekPriority() {
+    if (size == 0) {
+      return -1;
+    }
+    while (bucketSizes[minPriority] == 0) {
+      minPriority++;
+    }
+    return minPriority;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,190 @@
+package code;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+// Open-addressing hash set of packed states. Every slot is stored inline as
+// [hash, word 0 .. word n-1, (value)] in one long table, either on the heap or
+// in a direct buffer outside of it, so no per-entry objects are retained. When
+// created with values each state also carries an int, e.g. its best path cost.
+public class ClosedSet {
+
+  private static final double MAX_LOAD_FACTOR = 0.7;
+  // Hash value reserved for empty slots, real zero hashes are remapped
+  private static final long EMPTY = 0L;
+  private static final long ZERO_HASH = 0x9E3779B97F4A7C15L;
+
+  private final int words;
+  private final int stride;
+  private final boolean offHeap;
+  private final boolean withValues;
+  private LongBuffer table;
+  private int capacity;
+  private int mask;
+  private int shift;
+  private int size;
+
+  public ClosedSet(int words) {
+    this(words, 1 << 10, false);
+  }
+
+  public ClosedSet(int words, int initialCapacity, boolean offHeap) {
+    this(words, initialCapacity, offHeap, false);
+  }
+
+  public ClosedSet(int words, int initialCapacity, boolean offHeap, boolean withValues) {
+    this.words = words;
+    this.stride = words + (withValues ? 2 : 1);
+    this.offHeap = offHeap;
+    this.withValues = withValues;
+    int capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    if ((long) capacity * stride > Integer.MAX_VALUE / Long.BYTES) {
+      throw new IllegalStateException("Closed set cannot grow beyond " + size + " states");
+    }
+    this.capacity = capacity;
+    this.mask = capacity - 1;
+    this.shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+    if (offHeap) {
+      table = ByteBuffer.allocateDirect(capacity * stride * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    } else {
+      table = LongBuffer.wrap(new long[capacity * stride]);
+    }
+  }
+
+  public boolean contains(long[] state, long hash) {
+    return find(state, fixHash(hash)) >= 0;
+  }
+
+  // Returns true if the state was not in the set yet
+  public boolean add(long[] state, long hash) {
+    hash = fixHash(hash);
+    int slot = find(state, hash);
+    if (slot >= 0) {
+      return false;
+    }
+    if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+      resize();
+      slot = find(state, hash);
+    }
+    insert(-slot - 1, state, hash);
+    size++;
+    return true;
+  }
+
+  // Value stored with state, or missing if the state is not in the set
+  public int get(long[] state, long hash, int missing) {
+    if (!withValues) {
+      throw new IllegalStateException("Closed set was created without values");
+    }
+    int slot = find(state, fixHash(hash));
+    return slot >= 0 ? (int) table.get(slot * stride + 1 + words) : missing;
+  }
+
+  // Adds state or overwrites its value, returns false if the state was already present
+  public boolean put(long[] state, long hash, int value) {
+    if (!withValues) {
+      throw new IllegalStateException("Closed set was created without values");
+    }
+    hash = fixHash(hash);
+    int slot = find(state, hash);
+    if (slot >= 0) {
+      table.put(slot * stride + 1 + words, value);
+      return false;
+    }
+    if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+      resize();
+      slot = find(state, hash);
+    }
+    insert(-slot - 1, state, hash);
+    table.put((-slot - 1) * stride + 1 + words, value);
+    size++;
+    return true;
+  }
+
+  // Index of the slot holding state, or -(free slot + 1) where it would be inserted
+  private int find(long[] state, long hash) {
+    // Fibonacci hashing: the slot comes from the top bits of the product, which depend on
+    // every bit of the hash. unorderedHash sums per-bottle hashes, so repeated bottles
+    // leave its low bits correlated.
+    int slot = (int) ((hash * 0x9E3779B97F4A7C15L) >>> shift);
+    while (true) {
+      int base = slot * stride;
+      long stored = table.get(base);
+      if (stored == EMPTY) {
+        return -slot - 1;
+      }
+      if (stored == hash && matches(base, state)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private boolean matches(int base, long[] state) {
+    for (int w = 0; w < words; w++) {
+      if (table.get(base + 1 + w) != state[w]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void insert(int slot, long[] state, long hash) {
+    int base = slot * stride;
+    table.put(base, hash);
+    for (int w = 0; w < words; w++) {
+      table.put(base + 1 + w, state[w]);
+    }
+  }
+
+  private void resize() {
+    LongBuffer old = table;
+    int oldCapacity = capacity;
+    allocate(capacity << 1);
+
+    long[] state = new long[words];
+    for (int slot = 0; slot < oldCapacity; slot++) {
+      int base = slot * stride;
+      long hash = old.get(base);
+      if (hash != EMPTY) {
+        for (int w = 0; w < words; w++) {
+          state[w] = old.get(base + 1 + w);
+        }
+        int newSlot = -find(state, hash) - 1;
+        insert(newSlot, state, hash);
+        if (withValues) {
+          table.put(newSlot * stride + 1 + words, old.get(base + 1 + words));
+        }
+      }
+    }
+  }
+
+  private static long fixHash(long hash) {
+    return hash == EMPTY ? ZERO_HASH : hash;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public double loadFactor() {
+    return (double) size / capacity;
+  }
+
+  public boolean isOffHeap() {
+    return offHeap;
+  }
+
+  public long memoryBytes() {
+    return (long) capacity * stride * Long.BYTES;
+  }
+}
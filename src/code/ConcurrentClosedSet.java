@@ -0,0 +1,47 @@
+package code;
+
+// Thread-safe closed set made of independently locked ClosedSet stripes, the
+// stripe for a state is picked from the high bits of its hash so it does not
+// correlate with the slot it gets inside the stripe.
+public class ConcurrentClosedSet {
+
+  private final ClosedSet[] stripes;
+  private final int shift;
+
+  public ConcurrentClosedSet(int words, int stripeCount, boolean offHeap) {
+    int count = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1);
+    this.stripes = new ClosedSet[count];
+    this.shift = Long.SIZE - Integer.numberOfTrailingZeros(count);
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new ClosedSet(words, 1 << 10, offHeap);
+    }
+  }
+
+  private ClosedSet stripe(long hash) {
+    return stripes.length == 1 ? stripes[0] : stripes[(int) (hash >>> shift)];
+  }
+
+  public boolean add(long[] state, long hash) {
+    ClosedSet stripe = stripe(hash);
+    synchronized (stripe) {
+      return stripe.add(state, hash);
+    }
+  }
+
+  public boolean contains(long[] state, long hash) {
+    ClosedSet stripe = stripe(hash);
+    synchronized (stripe) {
+      return stripe.contains(state, hash);
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (ClosedSet stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+}
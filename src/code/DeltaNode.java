@@ -0,0 +1,68 @@
+package code;
+
+// Node that keeps only the pour leading to it instead of its packed state. The state
+// is rebuilt on demand by replaying pours from the nearest ancestor that stores one
+// (the root or a checkpoint node). The last rebuilt state is cached per search, so a
+// node that is goal-tested and then expanded is only rebuilt once.
+public class DeltaNode extends Node {
+
+  // Last state rebuilt by the DeltaNodes of one search. Threads of a parallel search
+  // share it; a lost race only costs another replay.
+  public static class StateCache {
+
+    private final StateLayout layout;
+    private volatile Rebuilt last;
+
+    public StateCache(StateLayout layout) {
+      this.layout = layout;
+    }
+  }
+
+  private static class Rebuilt {
+    final DeltaNode node;
+    final long[] state;
+
+    Rebuilt(DeltaNode node, long[] state) {
+      this.node = node;
+      this.state = state;
+    }
+  }
+
+  private final StateCache cache;
+
+  public DeltaNode(StateCache cache, long hash, Node parent, int move, int pathCost, int heuristic) {
+    super(null, hash, parent, move, pathCost, heuristic);
+    if (parent == null || move == NO_MOVE) {
+      throw new IllegalArgumentException("Delta nodes need a parent and a pour to replay on it");
+    }
+    this.cache = cache;
+  }
+
+  @Override
+  public long[] getState() {
+    Rebuilt last = cache.last;
+    if (last != null && last.node == this) {
+      return last.state;
+    }
+    int pending = 0;
+    Node ancestor = this;
+    while (ancestor instanceof DeltaNode) {
+      pending++;
+      ancestor = ancestor.getParent();
+    }
+    DeltaNode[] pours = new DeltaNode[pending];
+    Node node = this;
+    for (int k = pending - 1; k >= 0; k--) {
+      pours[k] = (DeltaNode) node;
+      node = node.getParent();
+    }
+
+    long[] state = ancestor.getState();
+    for (DeltaNode pour : pours) {
+      int move = pour.getMove();
+      state = cache.layout.pour(state, moveFrom(move), moveTo(move), moveAmount(move));
+    }
+    cache.last = new Rebuilt(this, state);
+    return state;
+  }
+}
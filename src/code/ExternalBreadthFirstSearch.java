@@ -0,0 +1,399 @@
+package code;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Breadth-first search with its layers on disk. Each layer is a file of sorted,
+// unique closed keys plus a side file holding, per record, the index of its
+// parent in the previous layer. Children of a layer are buffered, sorted and
+// spilled as runs; the runs are then merged with each other and against every
+// earlier layer (delayed duplicate detection), so the heap only ever holds one
+// run buffer. All file access is sequential except for the parent lookups made
+// once a goal is found.
+public class ExternalBreadthFirstSearch {
+
+  private static final int IO_BUFFER_BYTES = 1 << 16;
+
+  private final GenericSearch problem;
+  private final Path directory;
+  private final int runRecords;
+  private final List<Path> layerFiles = new ArrayList<>();
+  private final List<Path> parentFiles = new ArrayList<>();
+  // Spilled runs of the layer being expanded, deleted once merged
+  private final List<Path> runFiles = new ArrayList<>();
+  private int words;
+  private boolean deleteDirectory;
+
+  public ExternalBreadthFirstSearch(GenericSearch problem, Path directory, int runRecords) {
+    if (runRecords < 1) {
+      throw new IllegalArgumentException("External search needs room for at least one buffered record");
+    }
+    this.problem = problem;
+    this.directory = directory;
+    this.runRecords = runRecords;
+  }
+
+  // Layers go to -Dwatersort.ebf.dir (a fresh temp directory by default), children are
+  // sorted in runs of -Dwatersort.ebf.runRecords records
+  public static ExternalBreadthFirstSearch fromSystemProperties(GenericSearch problem) {
+    try {
+      String dir = System.getProperty("watersort.ebf.dir");
+      Path directory = dir == null ? Files.createTempDirectory("watersort-ebf")
+          : Files.createDirectories(Paths.get(dir));
+      ExternalBreadthFirstSearch search = new ExternalBreadthFirstSearch(problem, directory,
+          Integer.getInteger("watersort.ebf.runRecords", 1 << 18));
+      search.deleteDirectory = dir == null;
+      return search;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public Node search() {
+    Node goal;
+    try {
+      goal = run();
+    } catch (IOException e) {
+      UncheckedIOException failure = new UncheckedIOException(e);
+      deleteFilesAfter(failure);
+      throw failure;
+    } catch (RuntimeException | Error e) {
+      deleteFilesAfter(e);
+      throw e;
+    }
+    try {
+      deleteFiles();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return goal;
+  }
+
+  private Node run() throws IOException {
+    Node root = problem.getInitialState();
+    if (problem.isGoalState(root)) {
+      return root;
+    }
+    words = root.getState().length;
+    long[] rootKey = problem.closedKey(root);
+    try (RecordWriter states = new RecordWriter(newLayerFile(), words);
+        RecordWriter parents = new RecordWriter(newParentFile(), 1)) {
+      states.write(rootKey, 0);
+      parents.write(new long[] { -1 }, 0);
+    }
+
+    long layerSize = 1;
+    long storedStates = 1;
+    while (layerSize > 0) {
+      int depth = layerFiles.size() - 1;
+      long[][] buffer = new long[runRecords][];
+      int buffered = 0;
+
+      try (RecordReader layer = new RecordReader(layerFiles.get(depth), words)) {
+        for (long index = 0; layer.next(); index++) {
+          Node node = problem.restoreNode(layer.current());
+          for (Node child : problem.expandNode(node)) {
+            long[] key = problem.closedKey(child);
+            if (problem.isGoalState(child)) {
+              return rebuildPath(root, depth, index, key);
+            }
+            long[] record = Arrays.copyOf(key, words + 1);
+            record[words] = index;
+            buffer[buffered++] = record;
+            if (buffered == runRecords) {
+              runFiles.add(spillRun(buffer, buffered));
+              buffered = 0;
+            }
+          }
+        }
+      }
+      if (buffered > 0) {
+        runFiles.add(spillRun(buffer, buffered));
+      }
+      layerSize = mergeLayer();
+      storedStates += layerSize;
+      problem.getMetrics().frontierSize(layerSize);
+      // Only one run buffer is in memory, the closed set is what sits on disk
+      problem.getMetrics().closedSize(storedStates);
+    }
+    return null;
+  }
+
+  // Sorts buffered (key, parent) records and writes them as one run, dropping duplicate keys
+  private Path spillRun(long[][] buffer, int count) throws IOException {
+    Arrays.sort(buffer, 0, count, this::compareKeys);
+    Path run = Files.createTempFile(directory, "run", ".bin");
+    try (RecordWriter writer = new RecordWriter(run, words + 1)) {
+      long[] previous = null;
+      for (int i = 0; i < count; i++) {
+        if (previous == null || compareKeys(previous, buffer[i]) != 0) {
+          writer.write(buffer[i], 0);
+          previous = buffer[i];
+        } else {
+          problem.getMetrics().duplicateRejected();
+        }
+        buffer[i] = null;
+      }
+    }
+    return run;
+  }
+
+  // K-way merge of the runs into the next layer, skipping keys already in any earlier layer
+  private long mergeLayer() throws IOException {
+    PriorityQueue<RecordReader> heads = new PriorityQueue<>((a, b) -> compareKeys(a.current(), b.current()));
+    List<RecordReader> previousLayers = new ArrayList<>();
+    long written = 0;
+    try {
+      for (Path run : runFiles) {
+        RecordReader reader = new RecordReader(run, words + 1);
+        if (reader.next()) {
+          heads.add(reader);
+        } else {
+          reader.close();
+        }
+      }
+      for (Path layerFile : layerFiles) {
+        RecordReader reader = new RecordReader(layerFile, words);
+        previousLayers.add(reader);
+        reader.next();
+      }
+
+      try (RecordWriter states = new RecordWriter(newLayerFile(), words);
+          RecordWriter parents = new RecordWriter(newParentFile(), 1)) {
+        long[] last = null;
+        while (!heads.isEmpty()) {
+          RecordReader head = heads.poll();
+          long[] record = head.current().clone();
+          if (head.next()) {
+            heads.add(head);
+          } else {
+            head.close();
+          }
+          if (last != null && compareKeys(last, record) == 0) {
+            problem.getMetrics().duplicateRejected();
+            continue;
+          }
+          last = record;
+          if (!seenBefore(previousLayers, record)) {
+            states.write(record, 0);
+            parents.write(record, words);
+            written++;
+          } else {
+            problem.getMetrics().duplicateRejected();
+          }
+        }
+      }
+    } finally {
+      for (RecordReader reader : heads) {
+        reader.close();
+      }
+      for (RecordReader reader : previousLayers) {
+        reader.close();
+      }
+      for (Path run : runFiles) {
+        Files.deleteIfExists(run);
+      }
+      runFiles.clear();
+    }
+    return written;
+  }
+
+  private boolean seenBefore(List<RecordReader> previousLayers, long[] key) throws IOException {
+    for (RecordReader layer : previousLayers) {
+      while (!layer.isExhausted() && compareKeys(layer.current(), key) < 0) {
+        layer.next();
+      }
+      if (!layer.isExhausted() && compareKeys(layer.current(), key) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Follows the parent side files back to the root, then replays the key sequence
+  // from the real root so the returned nodes carry real states and actions
+  private Node rebuildPath(Node root, int depth, long parentIndex, long[] goalKey) throws IOException {
+    long[][] keys = new long[depth + 2][];
+    keys[depth + 1] = goalKey;
+    long index = parentIndex;
+    for (int d = depth; d >= 0; d--) {
+      keys[d] = readRecord(layerFiles.get(d), words, index);
+      index = readRecord(parentFiles.get(d), 1, index)[0];
+    }
+
+    Node node = root;
+    for (int d = 1; d < keys.length; d++) {
+      Node next = null;
+      for (Node child : problem.expandNode(node)) {
+        if (Arrays.equals(problem.closedKey(child), keys[d])) {
+          next = child;
+          break;
+        }
+      }
+      if (next == null) {
+        throw new IllegalStateException("Layer " + d + " does not continue the path rebuilt so far");
+      }
+      node = next;
+    }
+    return node;
+  }
+
+  private long[] readRecord(Path file, int recordWords, long index) throws IOException {
+    ByteBuffer bytes = ByteBuffer.allocate(recordWords * Long.BYTES).order(ByteOrder.nativeOrder());
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long position = index * recordWords * Long.BYTES;
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, position + bytes.position()) < 0) {
+          throw new IOException("Truncated layer file: " + file);
+        }
+      }
+    }
+    bytes.flip();
+    long[] record = new long[recordWords];
+    bytes.asLongBuffer().get(record);
+    return record;
+  }
+
+  private int compareKeys(long[] a, long[] b) {
+    return Arrays.compare(a, 0, words, b, 0, words);
+  }
+
+  private Path newLayerFile() {
+    Path file = directory.resolve("layer-" + layerFiles.size() + ".bin");
+    layerFiles.add(file);
+    return file;
+  }
+
+  private Path newParentFile() {
+    Path file = directory.resolve("parents-" + parentFiles.size() + ".bin");
+    parentFiles.add(file);
+    return file;
+  }
+
+  // Deletes every file the search wrote, and the directory if it was created for it.
+  // All deletions are attempted; the first failure is thrown with the others suppressed.
+  private void deleteFiles() throws IOException {
+    List<Path> files = new ArrayList<>(runFiles);
+    files.addAll(layerFiles);
+    files.addAll(parentFiles);
+    if (deleteDirectory) {
+      files.add(directory);
+    }
+    runFiles.clear();
+    IOException failure = null;
+    for (Path file : files) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  // Cleans up after a failed search without hiding why it failed
+  private void deleteFilesAfter(Throwable failure) {
+    try {
+      deleteFiles();
+    } catch (IOException e) {
+      failure.addSuppressed(e);
+    }
+  }
+
+  // Buffered sequential writer of fixed-size long records
+  private static class RecordWriter implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.nativeOrder());
+    private final int recordWords;
+
+    RecordWriter(Path file, int recordWords) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+      this.recordWords = recordWords;
+    }
+
+    // Writes recordWords longs of record starting at offset
+    void write(long[] record, int offset) throws IOException {
+      if (buffer.remaining() < recordWords * Long.BYTES) {
+        flush();
+      }
+      for (int w = 0; w < recordWords; w++) {
+        buffer.putLong(record[offset + w]);
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      channel.close();
+    }
+  }
+
+  // Buffered sequential reader of fixed-size long records
+  private static class RecordReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.nativeOrder());
+    private final long[] current;
+    private boolean exhausted;
+
+    RecordReader(Path file, int recordWords) throws IOException {
+      this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      this.current = new long[recordWords];
+      buffer.flip();
+    }
+
+    // Advances to the next record, false once the file is exhausted
+    boolean next() throws IOException {
+      int recordBytes = current.length * Long.BYTES;
+      if (buffer.remaining() < recordBytes) {
+        buffer.compact();
+        while (buffer.position() < recordBytes && channel.read(buffer) > 0) {
+          // Keep reading until a whole record is buffered
+        }
+        buffer.flip();
+        if (buffer.remaining() < recordBytes) {
+          exhausted = true;
+          return false;
+        }
+      }
+      for (int w = 0; w < current.length; w++) {
+        current[w] = buffer.getLong();
+      }
+      return true;
+    }
+
+    long[] current() {
+      return current;
+    }
+
+    boolean isExhausted() {
+      return exhausted;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -1,40 +1,140 @@
 package code;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 
+// One instance runs one search at a time: search() replaces the metrics of the
+// previous run. Use separate instances to search concurrently.
 public abstract class GenericSearch {
 
+    private static final int TRANSPOSITION_TABLE_LIMIT = Integer.getInteger("watersort.transpositionTableSize", 1 << 20);
+
+    private boolean offHeapClosedSet = Boolean.getBoolean("watersort.offHeapClosedSet");
+    private SearchMetrics metrics = new SearchMetrics();
+    private volatile boolean cancelled;
+
     public abstract boolean isGoalState(Node node);
 
     public abstract Node getInitialState();
 
     public abstract List<Node> expandNode(Node node);
 
-    protected abstract int getNodePriority(Node node, String strategy);
+    // Successors of node one move at a time. Problems that can describe a child before
+    // building it override this, the default walks the list from expandNode.
+    public SuccessorCursor successors(Node node) {
+        checkCancelled();
+        List<Node> children = expandNode(node);
+        metrics.nodeExpanded();
+        metrics.nodesGenerated(children.size());
+        return SuccessorCursor.of(children);
+    }
+
+    // Metrics of the current or last search run on this instance
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Asks a search running on this instance, from any thread, to stop at its next
+    // expansion by throwing CancellationException. A cancelled instance stays cancelled.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    protected final void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Search cancelled");
+        }
+    }
+
+    // Node for a state read back from outside the search tree (e.g. an on-disk layer),
+    // without parent, action or path cost
+    public abstract Node restoreNode(long[] state);
+
+    // Open-list priority of a node under the strategy passed to prepareSearch
+    protected abstract int getNodePriority(Node node);
+
+    // Shape of the instance, reported in JFR events
+    public abstract StateLayout getLayout();
+
+    // Key and hash under which a node is stored in closed sets and transposition tables.
+    // Subclasses may map symmetric states onto one key, the node itself keeps its real state.
+    // closedHash takes the key closedKey returned and the hash of the state it was built
+    // from, so a lookup builds its key only once.
+    protected final long[] closedKey(Node node) {
+        return closedKey(node.getState());
+    }
+
+    protected long[] closedKey(long[] state) {
+        return state;
+    }
+
+    protected long closedHash(long[] key, long hash) {
+        return hash;
+    }
+
+    public void setOffHeapClosedSet(boolean offHeapClosedSet) {
+        this.offHeapClosedSet = offHeapClosedSet;
+    }
+
+    protected ClosedSet newClosedSet(Node root) {
+        return newClosedSet(root, false);
+    }
+
+    protected ClosedSet newClosedSet(Node root, boolean withValues) {
+        return new ClosedSet(root.getState().length, 1 << 10, offHeapClosedSet, withValues);
+    }
+
+    // Called once before a search runs so subclasses can pick per-strategy state,
+    // e.g. which heuristic to store in newly created nodes
+    protected void prepareSearch(String strategy) {
+    }
 
     public Node search(String strategy) {
+        metrics = new SearchMetrics();
+        long start = System.nanoTime();
+        prepareSearch(strategy);
+        metrics.addPhaseNanos(SearchMetrics.Phase.PREPARE, System.nanoTime() - start);
+        start = System.nanoTime();
+        SearchEvents.Search event = SearchEvents.started(this, strategy);
+        Node solution = null;
+        try {
+            solution = runSearch(strategy);
+            return solution;
+        } finally {
+            metrics.addPhaseNanos(SearchMetrics.Phase.SEARCH, System.nanoTime() - start);
+            SearchEvents.finished(event, this, strategy, solution);
+        }
+    }
+
+    private Node runSearch(String strategy) {
         Queue<Node> frontier;
         switch (strategy) {
             case "BF": // Breadth-First Search
                 frontier = new LinkedList<>();
                 break;
+            case "EBF": // External-memory Breadth-First Search
+                return ExternalBreadthFirstSearch.fromSystemProperties(this).search();
+            case "PBF": // Level-synchronous parallel Breadth-First Search
+                return new ParallelBreadthFirstSearch(this, HashDistributedSearch.defaultThreads(),
+                        offHeapClosedSet).search();
             case "DF": // Depth-First Search
                 frontier = new ArrayDeque<>();
                 break;
             case "ID": // Iterative Deepening Search
-                return iterativeDeepeningSearch();
+                return iterativeDeepeningSearch(false);
             case "UC": // Uniform-Cost Search
-            case "GR1": // Greedy Search Heuristic 1
-            case "GR2": // Greedy Search Heuristic 2
-            case "AS1": // A* Search with Heuristic 1
-            case "AS2": // A* Search with Heuristic 2
                 return informedSearch(strategy);
             default:
-                throw new IllegalArgumentException("Invalid strategy: " + strategy);
+                return heuristicSearch(strategy);
         }
 
-        Set<Node> explored = new HashSet<>();
-        frontier.add(getInitialState());
+        Node root = getInitialState();
+        ClosedSet explored = newClosedSet(root);
+        frontier.add(root);
 
         while (!frontier.isEmpty()) {
             Node node = frontier.poll();
@@ -43,21 +143,55 @@ public abstract class GenericSearch {
                 return node;
             }
 
-            explored.add(node);
-            for (Node child : expandNode(node)) {
-                if (!explored.contains(child)) {
-                    frontier.add(child);
+            long[] nodeKey = closedKey(node);
+            explored.add(nodeKey, closedHash(nodeKey, node.getHash()));
+            SuccessorCursor successors = successors(node);
+            while (successors.advance()) {
+                long[] key = closedKey(successors.state());
+                if (!explored.contains(key, closedHash(key, successors.hash()))) {
+                    frontier.add(successors.child());
+                } else {
+                    metrics.duplicateRejected();
                 }
             }
+            metrics.frontierSize(frontier.size());
+            metrics.closedSize(explored.size());
         }
         return null;
     }
 
+    // Strategies named <family><heuristic id>, see HeuristicRegistry
+    private Node heuristicSearch(String strategy) {
+        String family = HeuristicRegistry.family(strategy);
+        if (family == null) {
+            throw new IllegalArgumentException("Invalid strategy: " + strategy);
+        }
+        switch (family) {
+            case "GR": // Greedy Search
+            case "AS": // A* Search
+                return informedSearch(strategy);
+            case "IDA": // Iterative Deepening A*
+                return iterativeDeepeningSearch(true);
+            case "PAS": // Parallel hash-distributed A*
+                return new HashDistributedSearch(this, HashDistributedSearch.defaultThreads()).search();
+            case "SMA": // Memory-bounded A*
+                return new MemoryBoundedSearch(this,
+                        MemoryBoundedSearch.defaultMaxNodes(getInitialState().getState().length)).search();
+            default:
+                throw new IllegalArgumentException("Invalid strategy: " + strategy);
+        }
+    }
+
     private Node informedSearch(String strategy) {
-        PriorityQueue<Node> frontier = new PriorityQueue<>(
-                Comparator.comparingInt(node -> getNodePriority(node, strategy)));
-        Set<Node> explored = new HashSet<>();
-        frontier.add(getInitialState());
+        // Priorities are small integers, ties go to the node with the lower heuristic.
+        // Each state is queued at most once, with the cheapest path found so far; only
+        // A* reopens closed states, which matters for inconsistent heuristics.
+        Node root = getInitialState();
+        boolean reopen = "AS".equals(HeuristicRegistry.family(strategy));
+        IndexedOpenList frontier = new IndexedOpenList(newClosedSet(root, true), reopen);
+        long[] rootKey = closedKey(root);
+        frontier.offer(root, rootKey, closedHash(rootKey, root.getHash()), getNodePriority(root),
+                root.getHeuristic());
 
         while (!frontier.isEmpty()) {
             Node node = frontier.poll();
@@ -66,38 +200,132 @@ public abstract class GenericSearch {
                 return node;
             }
 
-            explored.add(node);
-            for (Node child : expandNode(node)) {
-                if (!explored.contains(child)) {
-                    frontier.add(child);
+            // Children the open list would reject are never built, nor their heuristic evaluated
+            SuccessorCursor successors = successors(node);
+            while (successors.advance()) {
+                long[] key = closedKey(successors.state());
+                long hash = closedHash(key, successors.hash());
+                if (frontier.accepts(key, hash, successors.pathCost())) {
+                    Node child = successors.child();
+                    frontier.offer(child, key, hash, getNodePriority(child), child.getHeuristic());
+                } else {
+                    metrics.duplicateRejected();
                 }
             }
+            metrics.frontierSize(frontier.size());
+            metrics.closedSize(frontier.knownStates() - frontier.size());
         }
         return null;
     }
 
-    private Node iterativeDeepeningSearch() {
-        for (int depthLimit = 0;; depthLimit++) {
-            Node result = depthLimitedSearch(getInitialState(), depthLimit);
+    // Iterative deepening (ID) and IDA* share one engine: a bounded depth-first
+    // search with an on-path cycle check and a transposition table holding the
+    // cheapest g each state was reached with during the current iteration.
+    private Node iterativeDeepeningSearch(boolean useHeuristic) {
+        Node root = getInitialState();
+        int bound = useHeuristic ? root.getTotalCost() : 0;
+        int previousVisited = -1;
+
+        while (true) {
+            Iteration iteration = new Iteration(newClosedSet(root, true));
+            long[] rootKey = closedKey(root);
+            Node result = boundedSearch(iteration, root, rootKey, closedHash(rootKey, root.getHash()), bound,
+                    useHeuristic);
             if (result != null) {
                 return result;
             }
+            // No node was cut off by the bound, the whole space has been searched
+            if (iteration.nextBound == Integer.MAX_VALUE) {
+                return null;
+            }
+            // For plain ID the table holds every state within bound moves, if one more move
+            // found nothing new there is nothing deeper either. Children that jump more than
+            // one level (macro moves) make that argument unsound.
+            int visited = iteration.transpositionTable.size();
+            if (!useHeuristic && !iteration.transpositionTableFull && !iteration.overshotBound
+                    && visited == previousVisited) {
+                return null;
+            }
+            previousVisited = iteration.overshotBound ? -1 : visited;
+            bound = iteration.nextBound;
+        }
+    }
+
+    // State of one iteration of the iterative deepening engine
+    private static class Iteration {
+        final ClosedSet transpositionTable;
+        boolean transpositionTableFull;
+        boolean overshotBound;
+        int nextBound = Integer.MAX_VALUE;
+
+        Iteration(ClosedSet transpositionTable) {
+            this.transpositionTable = transpositionTable;
         }
     }
 
-    private Node depthLimitedSearch(Node node, int depthLimit) {
+    private Node boundedSearch(Iteration iteration, Node node, long[] key, long hash, int bound,
+            boolean useHeuristic) {
+        ClosedSet transpositionTable = iteration.transpositionTable;
+        int cost = useHeuristic ? node.getTotalCost() : node.getDepth();
+        if (cost > bound) {
+            iteration.nextBound = Math.min(iteration.nextBound, cost);
+            iteration.overshotBound = true;
+            return null;
+        }
         if (isGoalState(node)) {
             return node;
         }
-        if (node.getDepth() >= depthLimit) {
+
+        int g = useHeuristic ? node.getPathCost() : node.getDepth();
+        int seen = transpositionTable.get(key, hash, Integer.MAX_VALUE);
+        if (seen <= g) {
             return null;
         }
-        for (Node child : expandNode(node)) {
-            Node result = depthLimitedSearch(child, depthLimit);
+        if (seen != Integer.MAX_VALUE || transpositionTable.size() < TRANSPOSITION_TABLE_LIMIT) {
+            transpositionTable.put(key, hash, g);
+            metrics.closedSize(transpositionTable.size());
+        } else {
+            iteration.transpositionTableFull = true;
+        }
+
+        if (!useHeuristic && node.getDepth() == bound) {
+            // Depth limit reached, the children belong to the next iteration
+            iteration.nextBound = bound + 1;
+            return null;
+        }
+        // Children are only built once they are off the path and not dominated by a cheaper
+        // visit in this iteration, and not at all once a goal turns up under an earlier sibling
+        // The frontier of a depth-first search is the current path
+        metrics.frontierSize(node.getDepth() + 1);
+        SuccessorCursor successors = successors(node);
+        while (successors.advance()) {
+            if (isOnPath(successors, node)) {
+                metrics.duplicateRejected();
+                continue;
+            }
+            long[] childKey = closedKey(successors.state());
+            long childHash = closedHash(childKey, successors.hash());
+            int childG = useHeuristic ? successors.pathCost() : successors.depth();
+            if (transpositionTable.get(childKey, childHash, Integer.MAX_VALUE) <= childG) {
+                metrics.duplicateRejected();
+                continue;
+            }
+            Node result = boundedSearch(iteration, successors.child(), childKey, childHash, bound, useHeuristic);
             if (result != null) {
                 return result;
             }
         }
         return null;
     }
+
+    // Compares hashes first, the child's state is only built on a hash match
+    private boolean isOnPath(SuccessorCursor child, Node parent) {
+        long hash = child.hash();
+        for (Node ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.getHash() == hash && Arrays.equals(ancestor.getState(), child.state())) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,235 @@
+package code;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Hash-distributed A* (HDA*). Every worker owns the states whose hash maps to it,
+// with a private open list and closed set; generated children are handed to
+// their owner through its lock-free inbox. Workers keep expanding nodes whose
+// f is below the best goal found so far, so the returned solution stays optimal
+// for admissible heuristics. A worker with nothing to do spins briefly and then
+// parks until a child lands in its inbox or the search ends, so idle workers do not
+// hold a core.
+public class HashDistributedSearch {
+
+  // Empty polls spent spinning before an idle worker parks
+  private static final int SPIN_ROUNDS = 64;
+  // Upper bound on one park, in case a wakeup is lost
+  private static final long PARK_NANOS = 1_000_000;
+
+  private final GenericSearch problem;
+  private final Worker[] workers;
+
+  // Nodes sitting in an inbox or an open list, or being expanded. Children are
+  // counted before their parent is released, so zero means the search is over.
+  private final AtomicLong outstanding = new AtomicLong();
+  private final AtomicInteger incumbentCost = new AtomicInteger(Integer.MAX_VALUE);
+  private final AtomicReference<Node> incumbent = new AtomicReference<>();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  public HashDistributedSearch(GenericSearch problem, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Parallel search needs at least one thread");
+    }
+    this.problem = problem;
+    this.workers = new Worker[threads];
+  }
+
+  public static int defaultThreads() {
+    return Integer.getInteger("watersort.threads", Runtime.getRuntime().availableProcessors());
+  }
+
+  public Node search() {
+    Node root = problem.getInitialState();
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker(i, problem.newClosedSet(root, true));
+    }
+    send(root);
+
+    Thread[] threads = new Thread[workers.length];
+    for (int i = 0; i < workers.length; i++) {
+      threads[i] = new Thread(workers[i], "hda-worker-" + i);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure.compareAndSet(null, e);
+        wakeAll();
+      }
+    }
+
+    long closed = 0;
+    for (Worker worker : workers) {
+      closed += worker.bestCost.size();
+    }
+    problem.getMetrics().closedSize(closed);
+
+    Throwable error = failure.get();
+    if (error instanceof CancellationException) {
+      throw (CancellationException) error;
+    }
+    if (error != null) {
+      throw new IllegalStateException("Parallel search failed", error);
+    }
+    return incumbent.get();
+  }
+
+  private void send(Node node) {
+    outstanding.incrementAndGet();
+    Worker owner = workers[owner(node)];
+    owner.inbox.add(node);
+    owner.wake();
+  }
+
+  // Lets parked workers see that the search is over
+  private void wakeAll() {
+    for (Worker worker : workers) {
+      worker.wake();
+    }
+  }
+
+  // Symmetric states share a closed-set key, so they must also share an owner
+  private int owner(Node node) {
+    return owner(closedHash(problem.closedKey(node), node));
+  }
+
+  private int owner(long closedHash) {
+    return (int) Long.remainderUnsigned(closedHash ^ (closedHash >>> 32), workers.length);
+  }
+
+  private long closedHash(long[] key, Node node) {
+    return problem.closedHash(key, node.getHash());
+  }
+
+  private void offerGoal(Node node) {
+    int cost = node.getPathCost();
+    while (true) {
+      int current = incumbentCost.get();
+      if (cost >= current) {
+        return;
+      }
+      if (incumbentCost.compareAndSet(current, cost)) {
+        incumbent.set(node);
+        return;
+      }
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    private final int id;
+    private final ConcurrentLinkedQueue<Node> inbox = new ConcurrentLinkedQueue<>();
+    private final BucketQueue<Node> open = new BucketQueue<>();
+    // Best path cost seen for every owned state
+    private final ClosedSet bestCost;
+    private volatile Thread thread;
+    private volatile boolean parked;
+
+    Worker(int id, ClosedSet bestCost) {
+      this.id = id;
+      this.bestCost = bestCost;
+    }
+
+    @Override
+    public void run() {
+      thread = Thread.currentThread();
+      int idleRounds = 0;
+      try {
+        while (outstanding.get() > 0 && failure.get() == null) {
+          drainInbox();
+          Node node = open.poll();
+          if (node == null) {
+            idle(++idleRounds);
+            continue;
+          }
+          idleRounds = 0;
+          process(node);
+          long left = outstanding.decrementAndGet();
+          problem.getMetrics().frontierSize(left);
+          if (left == 0) {
+            wakeAll();
+          }
+        }
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+        wakeAll();
+      }
+    }
+
+    // parked is raised before the last look at the inbox and senders add before they
+    // read it, so a child sent meanwhile is either seen here or unparks this worker
+    private void idle(int rounds) {
+      if (rounds <= SPIN_ROUNDS) {
+        Thread.onSpinWait();
+        return;
+      }
+      parked = true;
+      if (inbox.isEmpty() && outstanding.get() > 0 && failure.get() == null) {
+        LockSupport.parkNanos(this, PARK_NANOS);
+      }
+      parked = false;
+    }
+
+    void wake() {
+      Thread owner = thread;
+      if (parked && owner != null) {
+        LockSupport.unpark(owner);
+      }
+    }
+
+    private void drainInbox() {
+      Node node;
+      while ((node = inbox.poll()) != null) {
+        long[] key = problem.closedKey(node);
+        long hash = closedHash(key, node);
+        if (node.getPathCost() < bestCost.get(key, hash, Integer.MAX_VALUE)) {
+          bestCost.put(key, hash, node.getPathCost());
+          open.add(node, problem.getNodePriority(node), node.getHeuristic());
+        } else {
+          problem.getMetrics().duplicateRejected();
+          outstanding.decrementAndGet();
+        }
+      }
+    }
+
+    private void process(Node node) {
+      // Stale copy, a cheaper path to the same state arrived later
+      long[] nodeKey = problem.closedKey(node);
+      if (node.getPathCost() > bestCost.get(nodeKey, closedHash(nodeKey, node), Integer.MAX_VALUE)) {
+        return;
+      }
+      if (node.getTotalCost() >= incumbentCost.get()) {
+        return;
+      }
+      if (problem.isGoalState(node)) {
+        offerGoal(node);
+        return;
+      }
+      for (Node child : problem.expandNode(node)) {
+        if (child.getTotalCost() >= incumbentCost.get()) {
+          continue;
+        }
+        long[] key = problem.closedKey(child);
+        long hash = closedHash(key, child);
+        if (owner(hash) == id) {
+          if (child.getPathCost() < bestCost.get(key, hash, Integer.MAX_VALUE)) {
+            bestCost.put(key, hash, child.getPathCost());
+            outstanding.incrementAndGet();
+            open.add(child, problem.getNodePriority(child), child.getHeuristic());
+          } else {
+            problem.getMetrics().duplicateRejected();
+          }
+        } else {
+          send(child);
+        }
+      }
+    }
+  }
+}
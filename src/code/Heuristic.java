@@ -0,0 +1,18 @@
+package code;
+
+// Estimate of the remaining pour cost (in layers) of a packed state. Implementations
+// are registered in HeuristicRegistry and must be stateless, searches may call them
+// from several threads at once.
+public interface Heuristic {
+
+  int estimate(StateLayout layout, long[] state);
+
+  // Instance used by one search. Heuristics that need scratch space return one that
+  // holds it, kept apart per thread since parallel searches share it.
+  default Heuristic forSearch() {
+    return this;
+  }
+
+  // True if the estimate never exceeds the real remaining cost, A* is only optimal then
+  boolean isAdmissible();
+}
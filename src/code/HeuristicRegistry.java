@@ -0,0 +1,48 @@
+package code;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Heuristics by id. An informed strategy name is a search family prefix followed
+// by a heuristic id, e.g. "AS3" is A* and "GR1" greedy search with heuristic 1.
+public class HeuristicRegistry {
+
+  private static final String[] FAMILIES = { "PAS", "IDA", "SMA", "GR", "AS" };
+  private static final Map<String, Heuristic> HEURISTICS = new ConcurrentHashMap<>();
+
+  static {
+    register("1", new MisplacedLayersHeuristic());
+    register("2", new NonHomogeneousHeuristic());
+    register("3", new BlockingLayersHeuristic());
+    register("4", new MaxHeuristic(get("1"), get("2"), get("3")));
+    register("5", new PatternDatabaseHeuristic());
+  }
+
+  public static void register(String id, Heuristic heuristic) {
+    HEURISTICS.put(id, heuristic);
+  }
+
+  public static Heuristic get(String id) {
+    return HEURISTICS.get(id);
+  }
+
+  public static Set<String> ids() {
+    return new TreeSet<>(HEURISTICS.keySet());
+  }
+
+  // Search family of an informed strategy ("AS", "GR", "PAS", "IDA" or "SMA"), null otherwise
+  public static String family(String strategy) {
+    for (String family : FAMILIES) {
+      if (strategy.startsWith(family) && HEURISTICS.containsKey(strategy.substring(family.length()))) {
+        return family;
+      }
+    }
+    return null;
+  }
+
+  // Heuristic named by an informed strategy, null for uninformed ones
+  public static Heuristic forStrategy(String strategy) {
+    String family = family(strategy);
+    return family == null ? null : HEURISTICS.get(strategy.substring(family.length()));
+  }
+}
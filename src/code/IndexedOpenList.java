@@ -0,0 +1,215 @@
+package code;
+
+import java.util.*;
+
+// Open list for best-first search that also remembers closed states. One primitive
+// table maps every generated state to either its open entry or, once expanded, its
+// best path cost, so a state is in the open list at most once. Cheaper paths to an
+// open state re-bucket its entry (decrease-key); cheaper paths to a closed state
+// reopen it when reopening is enabled. Entries live in intrusive doubly linked
+// lists, one per (priority, tieBreak) bucket, popped lowest priority then lowest
+// tie-break first.
+public class IndexedOpenList {
+
+  private static final int MISSING = Integer.MIN_VALUE;
+  private static final int NONE = -1;
+
+  // value >= 0: id of the open entry, value < 0: closed with path cost -value - 1
+  private final ClosedSet index;
+  private final boolean reopen;
+
+  private Node[] nodes = new Node[1 << 10];
+  private long[][] keys = new long[1 << 10][];
+  private long[] hashes = new long[1 << 10];
+  private int[] priorities = new int[1 << 10];
+  private int[] tieBreaks = new int[1 << 10];
+  private int[] next = new int[1 << 10];
+  private int[] prev = new int[1 << 10];
+  private int used;
+  private int freeList = NONE;
+
+  private int[][] heads = new int[16][];
+  private int[] bucketSizes = new int[16];
+  private int minPriority = Integer.MAX_VALUE;
+  private int size;
+  private int peakSize;
+  private long decreasedKeys;
+  private long reopened;
+
+  public IndexedOpenList(ClosedSet index, boolean reopen) {
+    this.index = index;
+    this.reopen = reopen;
+  }
+
+  // Returns true if node was queued, either as a new or reopened state or as a
+  // cheaper copy replacing the queued one
+  public boolean offer(Node node, long[] key, long hash, int priority, int tieBreak) {
+    int value = index.get(key, hash, MISSING);
+    if (value == MISSING) {
+      index.put(key, hash, insert(node, key, hash, priority, tieBreak));
+      return true;
+    }
+    if (value >= 0) {
+      if (node.getPathCost() >= nodes[value].getPathCost()) {
+        return false;
+      }
+      unlink(value);
+      nodes[value] = node;
+      link(value, priority, tieBreak);
+      decreasedKeys++;
+      return true;
+    }
+    int closedCost = -value - 1;
+    if (!reopen || node.getPathCost() >= closedCost) {
+      return false;
+    }
+    index.put(key, hash, insert(node, key, hash, priority, tieBreak));
+    reopened++;
+    return true;
+  }
+
+  // Whether offer would queue a node for this state with this path cost, lets callers
+  // skip building children that would be rejected
+  public boolean accepts(long[] key, long hash, int pathCost) {
+    int value = index.get(key, hash, MISSING);
+    if (value == MISSING) {
+      return true;
+    }
+    if (value >= 0) {
+      return pathCost < nodes[value].getPathCost();
+    }
+    return reopen && pathCost < -value - 1;
+  }
+
+  // Removes the best entry and records its state as closed
+  public Node poll() {
+    if (size == 0) {
+      return null;
+    }
+    while (bucketSizes[minPriority] == 0) {
+      minPriority++;
+    }
+    int[] level = heads[minPriority];
+    int id = NONE;
+    for (int tie = 0; tie < level.length && id == NONE; tie++) {
+      id = level[tie];
+    }
+    unlink(id);
+
+    Node node = nodes[id];
+    index.put(keys[id], hashes[id], -node.getPathCost() - 1);
+    nodes[id] = null;
+    keys[id] = null;
+    next[id] = freeList;
+    freeList = id;
+    return node;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int peakSize() {
+    return peakSize;
+  }
+
+  // Open plus closed states
+  public int knownStates() {
+    return index.size();
+  }
+
+  public long getDecreasedKeys() {
+    return decreasedKeys;
+  }
+
+  public long getReopened() {
+    return reopened;
+  }
+
+  private int insert(Node node, long[] key, long hash, int priority, int tieBreak) {
+    int id;
+    if (freeList != NONE) {
+      id = freeList;
+      freeList = next[id];
+    } else {
+      if (used == nodes.length) {
+        grow();
+      }
+      id = used++;
+    }
+    nodes[id] = node;
+    keys[id] = key;
+    hashes[id] = hash;
+    link(id, priority, tieBreak);
+    return id;
+  }
+
+  private void grow() {
+    int capacity = nodes.length * 2;
+    nodes = Arrays.copyOf(nodes, capacity);
+    keys = Arrays.copyOf(keys, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    priorities = Arrays.copyOf(priorities, capacity);
+    tieBreaks = Arrays.copyOf(tieBreaks, capacity);
+    next = Arrays.copyOf(next, capacity);
+    prev = Arrays.copyOf(prev, capacity);
+  }
+
+  private void link(int id, int priority, int tieBreak) {
+    if (priority < 0 || tieBreak < 0) {
+      throw new IllegalArgumentException("Open list priorities must be non-negative");
+    }
+    if (heads.length <= priority) {
+      int capacity = Math.max(priority + 1, heads.length * 2);
+      heads = Arrays.copyOf(heads, capacity);
+      bucketSizes = Arrays.copyOf(bucketSizes, capacity);
+    }
+    int[] level = heads[priority];
+    if (level == null || level.length <= tieBreak) {
+      int oldLength = level == null ? 0 : level.length;
+      level = level == null ? new int[Math.max(8, tieBreak + 1)] : Arrays.copyOf(level, Math.max(tieBreak + 1, oldLength * 2));
+      Arrays.fill(level, oldLength, level.length, NONE);
+      heads[priority] = level;
+    }
+
+    // Append at the tail so equal entries come out in insertion order
+    int head = level[tieBreak];
+    if (head == NONE) {
+      level[tieBreak] = id;
+      next[id] = id;
+      prev[id] = id;
+    } else {
+      int tail = prev[head];
+      next[tail] = id;
+      prev[id] = tail;
+      next[id] = head;
+      prev[head] = id;
+    }
+    priorities[id] = priority;
+    tieBreaks[id] = tieBreak;
+    bucketSizes[priority]++;
+    minPriority = Math.min(minPriority, priority);
+    size++;
+    peakSize = Math.max(peakSize, size);
+  }
+
+  private void unlink(int id) {
+    int[] level = heads[priorities[id]];
+    int tie = tieBreaks[id];
+    if (next[id] == id) {
+      level[tie] = NONE;
+    } else {
+      next[prev[id]] = next[id];
+      prev[next[id]] = prev[id];
+      if (level[tie] == id) {
+        level[tie] = next[id];
+      }
+    }
+    bucketSizes[priorities[id]]--;
+    size--;
+  }
+}
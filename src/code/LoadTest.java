@@ -0,0 +1,120 @@
+package code;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Sweeps generated puzzles over bottles, capacity, colors and scramble depth for each
+// strategy and writes one CSV row per solve. Peak heap is read from the heap memory
+// pools, whose peaks are reset after a GC before every solve. A solve that runs out
+// of heap is reported as "oom" and the sweep goes on.
+public class LoadTest {
+
+  private static final String HEADER = "strategy,bottles,capacity,colors,depth,seed,solved,cost,expanded,generated,"
+      + "duplicates,millis,peakHeapBytes";
+
+  // Usage: LoadTest key=value ...
+  //   strategies=AS1,GR2  bottles=5:8  capacity=4  colors=3:5  depth=100  seeds=3  out=results.csv
+  // Ranges are inclusive from:to, combinations without an empty bottle are skipped.
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 0) {
+        System.out.println("Usage: LoadTest strategies=AS1,GR2 bottles=5:8 capacity=4 colors=3:5 depth=100 "
+            + "seeds=3 [out=results.csv]");
+        return;
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    String[] strategies = options.getOrDefault("strategies", "AS1,GR2").split(",");
+    int[] bottles = range(options.getOrDefault("bottles", "5:7"));
+    int[] capacities = range(options.getOrDefault("capacity", "4"));
+    int[] colors = range(options.getOrDefault("colors", "3:5"));
+    int[] depths = range(options.getOrDefault("depth", "100"));
+    int seeds = Integer.parseInt(options.getOrDefault("seeds", "3"));
+
+    String out = options.get("out");
+    Writer writer = out == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+        : Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8);
+    try (PrintWriter csv = new PrintWriter(writer)) {
+      csv.println(HEADER);
+      for (int n : bottles) {
+        for (int capacity : capacities) {
+          for (int c : colors) {
+            if (c >= n) {
+              continue;
+            }
+            PuzzleGenerator generator = new PuzzleGenerator(n, capacity, c);
+            for (int depth : depths) {
+              for (int seed = 0; seed < seeds; seed++) {
+                String grid = generator.generate(depth, seed);
+                for (String strategy : strategies) {
+                  csv.println(run(grid, strategy.trim(), n, capacity, c, depth, seed));
+                  csv.flush();
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static String run(String grid, String strategy, int bottles, int capacity, int colors, int depth,
+      int seed) {
+    System.gc();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+
+    long start = System.nanoTime();
+    SearchResult result;
+    try {
+      result = new WaterSortSearch(grid).solve(strategy);
+    } catch (OutOfMemoryError e) {
+      result = null;
+    }
+    long millis = (System.nanoTime() - start) / 1_000_000;
+
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peakHeap += pool.getPeakUsage().getUsed();
+    }
+    String prefix = String.join(",", strategy, String.valueOf(bottles), String.valueOf(capacity),
+        String.valueOf(colors), String.valueOf(depth), String.valueOf(seed));
+    if (result == null) {
+      return String.join(",", prefix, "oom", "", "", "", "", String.valueOf(millis), String.valueOf(peakHeap));
+    }
+    SearchMetrics metrics = result.getMetrics();
+    return String.join(",", prefix, String.valueOf(result.isSolved()),
+        String.valueOf(result.getPathCost()), String.valueOf(metrics.getNodesExpanded()),
+        String.valueOf(metrics.getNodesGenerated()), String.valueOf(metrics.getDuplicatesRejected()),
+        String.valueOf(millis), String.valueOf(peakHeap));
+  }
+
+  private static int[] range(String spec) {
+    int colon = spec.indexOf(':');
+    if (colon < 0) {
+      return new int[] { Integer.parseInt(spec.trim()) };
+    }
+    int from = Integer.parseInt(spec.substring(0, colon).trim());
+    int to = Integer.parseInt(spec.substring(colon + 1).trim());
+    if (to < from) {
+      throw new IllegalArgumentException("Empty range: " + spec);
+    }
+    int[] values = new int[to - from + 1];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = from + i;
+    }
+    return values;
+  }
+}
@@ -0,0 +1,35 @@
+package code;
+
+import java.util.*;
+
+// Pointwise maximum of several heuristics, admissible when all of them are
+public class MaxHeuristic implements Heuristic {
+
+  private final List<Heuristic> heuristics;
+
+  public MaxHeuristic(Heuristic... heuristics) {
+    if (heuristics.length == 0) {
+      throw new IllegalArgumentException("Max heuristic needs at least one heuristic");
+    }
+    this.heuristics = List.of(heuristics);
+  }
+
+  @Override
+  public int estimate(StateLayout layout, long[] state) {
+    int best = 0;
+    for (Heuristic heuristic : heuristics) {
+      best = Math.max(best, heuristic.estimate(layout, state));
+    }
+    return best;
+  }
+
+  @Override
+  public boolean isAdmissible() {
+    for (Heuristic heuristic : heuristics) {
+      if (!heuristic.isAdmissible()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,272 @@
+package code;
+
+import java.util.*;
+
+// Simplified memory-bounded A* (SMA*). The search tree is capped at a fixed number
+// of nodes; when it is full the shallowest leaf with the highest f is forgotten and
+// its f is backed up into its parent, which is regenerated later if it becomes the
+// most promising node again. With an admissible heuristic the returned solution is
+// the cheapest one whose path fits in the budget. A node keeps no list of its
+// successors: they are generated one at a time from a SuccessorCursor, and a forgotten
+// one is rebuilt by walking a fresh cursor of its parent up to its position, so only
+// the nodes in the tree stay reachable.
+public class MemoryBoundedSearch {
+
+  private static final int INFINITE = Integer.MAX_VALUE;
+  // Rough retained size of one tree node: Node, its packed state, the SMA* bookkeeping
+  // and, while its successors are being generated, its cursor
+  private static final int NODE_OVERHEAD_BYTES = 224;
+
+  private final GenericSearch problem;
+  private final int maxNodes;
+  private final TreeSet<TreeNode> open = new TreeSet<>(TreeNode::compareTo);
+  private int nodesInMemory;
+  private int peakNodes;
+  private long nextId;
+
+  public MemoryBoundedSearch(GenericSearch problem, int maxNodes) {
+    if (maxNodes < 2) {
+      throw new IllegalArgumentException("Memory-bounded search needs room for at least two nodes");
+    }
+    this.problem = problem;
+    this.maxNodes = maxNodes;
+  }
+
+  // Node budget from -Dwatersort.sma.maxNodes, or -Dwatersort.sma.maxBytes divided by an estimate
+  // of the bytes one node retains
+  public static int defaultMaxNodes(int stateWords) {
+    String maxBytes = System.getProperty("watersort.sma.maxBytes");
+    if (maxBytes != null) {
+      long nodes = Long.parseLong(maxBytes) / (NODE_OVERHEAD_BYTES + (long) stateWords * Long.BYTES);
+      return (int) Math.max(2, Math.min(Integer.MAX_VALUE, nodes));
+    }
+    return Integer.getInteger("watersort.sma.maxNodes", 1 << 20);
+  }
+
+  public int getPeakNodes() {
+    return peakNodes;
+  }
+
+  public Node search() {
+    TreeNode root = new TreeNode(problem.getInitialState(), null, -1);
+    root.f = root.node.getTotalCost();
+    open.add(root);
+    nodesInMemory = 1;
+    peakNodes = 1;
+
+    while (!open.isEmpty()) {
+      TreeNode best = open.first();
+      if (best.f == INFINITE) {
+        return null;
+      }
+      if (problem.isGoalState(best.node)) {
+        return best.node;
+      }
+
+      TreeNode child = nextSuccessor(best);
+      if (child == null) {
+        // Every successor is in memory or was dropped as a cycle
+        open.remove(best);
+        backup(freeDeadEnds(best));
+        continue;
+      }
+
+      if (nodesInMemory == maxNodes) {
+        forgetWorstLeaf(best);
+      }
+      best.children.add(child);
+      nodesInMemory++;
+      peakNodes = Math.max(peakNodes, nodesInMemory);
+      open.add(child);
+      problem.getMetrics().frontierSize(open.size());
+      problem.getMetrics().closedSize(nodesInMemory);
+
+      if (best.allSuccessorsInMemory()) {
+        open.remove(best);
+      }
+      backup(best);
+    }
+    return null;
+  }
+
+  // Generates the successors of a node in order, then regenerates the forgotten
+  // one with the lowest backed-up f. Returns null if every successor is in memory
+  private TreeNode nextSuccessor(TreeNode parent) {
+    if (parent.covered == null) {
+      parent.covered = new BitSet();
+      parent.forgottenF = new int[8];
+      parent.cursor = problem.successors(parent.node);
+      if (!parent.cursor.advance()) {
+        parent.cursor = null;
+      }
+    }
+    int index = -1;
+    Node successor;
+    if (parent.cursor != null) {
+      index = parent.generated++;
+      successor = parent.cursor.child();
+      // Moving on right away tells whether this was the last successor
+      if (!parent.cursor.advance()) {
+        parent.cursor = null;
+      }
+    } else {
+      for (int i = parent.covered.nextClearBit(0); i < parent.generated; i = parent.covered.nextClearBit(i + 1)) {
+        if (index < 0 || parent.forgottenF[i] < parent.forgottenF[index]) {
+          index = i;
+        }
+      }
+      if (index < 0) {
+        return null;
+      }
+      successor = regenerate(parent, index);
+    }
+    parent.covered.set(index);
+
+    if (isOnPath(successor, parent)) {
+      // Cycles stay covered but never enter the tree
+      problem.getMetrics().duplicateRejected();
+      return nextSuccessor(parent);
+    }
+    TreeNode child = new TreeNode(successor, parent, index);
+    if (!problem.isGoalState(successor) && child.depth >= maxNodes - 1) {
+      // The path to any goal below would not fit in memory
+      child.f = INFINITE;
+    } else {
+      child.f = Math.max(parent.f, successor.getTotalCost());
+    }
+    return child;
+  }
+
+  // Expands the parent again and builds only the successor at index
+  private Node regenerate(TreeNode parent, int index) {
+    SuccessorCursor successors = problem.successors(parent.node);
+    for (int i = 0; i <= index; i++) {
+      if (!successors.advance()) {
+        throw new IllegalStateException("Successor " + index + " of a node could not be regenerated");
+      }
+    }
+    return successors.child();
+  }
+
+  // Once every successor has been generated a node's f becomes the best f among its
+  // children in memory and its forgotten ones, and changes propagate upwards
+  private void backup(TreeNode node) {
+    while (node != null && node.isFullyGenerated()) {
+      int best = INFINITE;
+      for (TreeNode child : node.children) {
+        best = Math.min(best, child.f);
+      }
+      for (int i = node.covered.nextClearBit(0); i < node.generated; i = node.covered.nextClearBit(i + 1)) {
+        best = Math.min(best, node.forgottenF[i]);
+      }
+      if (best == node.f) {
+        return;
+      }
+      boolean queued = open.remove(node);
+      node.f = best;
+      if (queued) {
+        open.add(node);
+      }
+      node = node.parent;
+    }
+  }
+
+  // A node whose successors are all covered but none is in memory can never reach a
+  // goal: its successors were cycles or dead ends themselves. It is dropped from the
+  // tree and stays covered in its parent, so it is never regenerated, and its parent
+  // follows if that leaves it in the same state. Returns the deepest node kept.
+  private TreeNode freeDeadEnds(TreeNode node) {
+    while (node.parent != null && node.children.isEmpty() && node.allSuccessorsInMemory()) {
+      open.remove(node);
+      node.parent.children.remove(node);
+      nodesInMemory--;
+      node = node.parent;
+    }
+    return node;
+  }
+
+  private void forgetWorstLeaf(TreeNode keep) {
+    Iterator<TreeNode> candidates = open.descendingIterator();
+    while (candidates.hasNext()) {
+      TreeNode leaf = candidates.next();
+      if (leaf.parent == null || leaf == keep || !leaf.children.isEmpty()) {
+        continue;
+      }
+      candidates.remove();
+      TreeNode parent = leaf.parent;
+      parent.children.remove(leaf);
+      parent.forget(leaf.index, leaf.f);
+      nodesInMemory--;
+      if (!open.contains(parent)) {
+        open.add(parent);
+      }
+      backup(parent);
+      return;
+    }
+    throw new IllegalStateException("Memory budget of " + maxNodes + " nodes is too small to continue");
+  }
+
+  private static boolean isOnPath(Node child, TreeNode parent) {
+    for (TreeNode ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+      if (ancestor.node.equals(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private class TreeNode implements Comparable<TreeNode> {
+
+    final Node node;
+    final TreeNode parent;
+    // Position among the parent's successors
+    final int index;
+    final int depth;
+    final long id = nextId++;
+    final List<TreeNode> children = new ArrayList<>(2);
+    // Positioned on the next successor to generate in order, null once all were generated
+    SuccessorCursor cursor;
+    // Successors generated so far, in order
+    int generated;
+    // Successors currently in memory or dropped as cycles, null until the first expansion
+    BitSet covered;
+    // Backed-up f of each forgotten successor
+    int[] forgottenF;
+    int f;
+
+    TreeNode(Node node, TreeNode parent, int index) {
+      this.node = node;
+      this.parent = parent;
+      this.index = index;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    boolean isFullyGenerated() {
+      return covered != null && cursor == null;
+    }
+
+    boolean allSuccessorsInMemory() {
+      return isFullyGenerated() && covered.nextClearBit(0) >= generated;
+    }
+
+    void forget(int successor, int f) {
+      covered.clear(successor);
+      if (successor >= forgottenF.length) {
+        forgottenF = Arrays.copyOf(forgottenF, Math.max(successor + 1, forgottenF.length * 2));
+      }
+      forgottenF[successor] = f;
+    }
+
+    // Best first: lowest f, then deepest; the last element is the worst, shallowest leaf
+    @Override
+    public int compareTo(TreeNode other) {
+      if (f != other.f) {
+        return Integer.compare(f, other.f);
+      }
+      if (depth != other.depth) {
+        return Integer.compare(other.depth, depth);
+      }
+      return Long.compare(id, other.id);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package code;
+
+// First Heuristic: Number of Misplaced Layers, counted as the layers above the
+// bottom one that differ from the bottom layer of their bottle. Either the bottom
+// layer stays and each of them has to be poured out, or the bottom layer moves and
+// everything above it moves too, so the count never exceeds the remaining cost.
+public class MisplacedLayersHeuristic implements Heuristic {
+
+  @Override
+  public int estimate(StateLayout layout, long[] state) {
+    int misplacedLayers = 0;
+
+    for (int b = 0; b < layout.getBottleCount(); b++) {
+      long bottle = layout.bottle(state, b);
+      if (layout.isEmpty(bottle)) {
+        continue;
+      }
+
+      int bottomLayer = layout.layer(bottle, 0);
+      int size = layout.fill(bottle);
+
+      for (int i = 1; i < size; i++) {
+        if (layout.layer(bottle, i) != bottomLayer) {
+          misplacedLayers++;
+        }
+      }
+    }
+    return misplacedLayers;
+  }
+
+  @Override
+  public boolean isAdmissible() {
+    return true;
+  }
+}
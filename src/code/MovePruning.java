@@ -0,0 +1,86 @@
+package code;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Toggleable successor pruning rules for expandNode, each counting how many pours
+// it removed. The default rules only drop pours whose child is a bottle
+// permutation of a sibling or equal to the grandparent, so every strategy keeps
+// its optimality. MACRO_MOVES is opt-in and gives that guarantee up.
+public class MovePruning {
+
+  public enum Rule {
+    // Pouring a single-color bottle into an empty one only swaps the two bottles
+    HOMOGENEOUS_TO_EMPTY,
+    // All empty bottles are interchangeable, only pour into the first one
+    EQUIVALENT_EMPTY_TARGET,
+    // Pouring back what the last move poured returns to the grandparent state
+    IMMEDIATE_UNDO,
+    // Chain pours that complete a bottle onto the move that enabled them
+    MACRO_MOVES
+  }
+
+  private final EnumSet<Rule> enabled;
+  private final EnumMap<Rule, LongAdder> counts = new EnumMap<>(Rule.class);
+
+  public MovePruning(Set<Rule> enabled) {
+    this.enabled = enabled.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(enabled);
+    for (Rule rule : Rule.values()) {
+      counts.put(rule, new LongAdder());
+    }
+  }
+
+  // Reads -Dwatersort.pruning, a comma separated rule list ("none" disables pruning)
+  public static MovePruning fromSystemProperties() {
+    String rules = System.getProperty("watersort.pruning");
+    if (rules == null) {
+      return new MovePruning(EnumSet.of(Rule.HOMOGENEOUS_TO_EMPTY, Rule.EQUIVALENT_EMPTY_TARGET,
+          Rule.IMMEDIATE_UNDO));
+    }
+    EnumSet<Rule> enabled = EnumSet.noneOf(Rule.class);
+    for (String rule : rules.split(",")) {
+      String name = rule.trim().toUpperCase();
+      if (!name.isEmpty() && !name.equals("NONE")) {
+        enabled.add(Rule.valueOf(name));
+      }
+    }
+    return new MovePruning(enabled);
+  }
+
+  public boolean isEnabled(Rule rule) {
+    return enabled.contains(rule);
+  }
+
+  public void setEnabled(Rule rule, boolean on) {
+    if (on) {
+      enabled.add(rule);
+    } else {
+      enabled.remove(rule);
+    }
+  }
+
+  // Records that rule fired, returns whether it is enabled
+  public boolean prune(Rule rule) {
+    if (!enabled.contains(rule)) {
+      return false;
+    }
+    counts.get(rule).increment();
+    return true;
+  }
+
+  public long getCount(Rule rule) {
+    return counts.get(rule).sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Rule rule : Rule.values()) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(rule).append(enabled.contains(rule) ? "=" + getCount(rule) : "=off");
+    }
+    return sb.toString();
+  }
+}
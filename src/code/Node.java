@@ -4,17 +4,23 @@ import java.util.*;
 
 public class Node {
 
+  // Move of the root node
+  public static final int NO_MOVE = -1;
+
   private Node parent;
-  private List<Bottle> state;
-  private String action;
+  private long[] state;
+  private long hash;
+  // Pour that produced this node, see move(from, to, amount)
+  private int move;
   private int pathCost;
   private int depth;
   private int heuristic;
 
-  public Node(List<Bottle> state, Node parent, String action, int pathCost, int heuristic) {
+  public Node(long[] state, long hash, Node parent, int move, int pathCost, int heuristic) {
     this.state = state;
+    this.hash = hash;
     this.parent = parent;
-    this.action = action;
+    this.move = move;
     this.pathCost = pathCost;
     this.depth = (parent == null) ? 0 : parent.depth + 1;
     this.heuristic = heuristic;
@@ -24,12 +30,43 @@ public class Node {
     return parent;
   }
 
-  public List<Bottle> getState() {
+  public long[] getState() {
     return state;
   }
 
+  public long getHash() {
+    return hash;
+  }
+
+  // Packs a pour into an int: from << 20 | to << 8 | amount
+  public static int move(int from, int to, int amount) {
+    if (from < 0 || from >= 1 << 12 || to < 0 || to >= 1 << 12 || amount < 0 || amount >= 1 << 8) {
+      throw new IllegalArgumentException("Pour does not fit a packed move: " + from + ", " + to + ", " + amount);
+    }
+    return from << 20 | to << 8 | amount;
+  }
+
+  public static int moveFrom(int move) {
+    return move >>> 20;
+  }
+
+  public static int moveTo(int move) {
+    return (move >>> 8) & 0xFFF;
+  }
+
+  public static int moveAmount(int move) {
+    return move & 0xFF;
+  }
+
+  public int getMove() {
+    return move;
+  }
+
   public String getAction() {
-    return action;
+    if (move == NO_MOVE) {
+      return null;
+    }
+    return "pour_" + moveFrom(move) + "_" + moveTo(move);
   }
 
   public int getPathCost() {
@@ -41,27 +78,50 @@ public class Node {
   }
 
   public String getSolutionPath() {
-    if (parent == null) {
-      return "";
+    StringBuilder path = new StringBuilder(depth * 10);
+    for (int move : getMoves()) {
+      path.append("pour_").append(moveFrom(move)).append('_').append(moveTo(move)).append(',');
+    }
+    return path.toString();
+  }
+
+  // Packed moves from the root to this node
+  public int[] getMoves() {
+    int[] moves = new int[depth];
+    Node node = this;
+    for (int i = depth - 1; i >= 0; i--) {
+      moves[i] = node.move;
+      node = node.parent;
+    }
+    return moves;
+  }
+
+  // Pours from the root to this node as {from, to, amount} rows
+  public int[][] getPlan() {
+    int[] moves = getMoves();
+    int[][] plan = new int[moves.length][];
+    for (int i = 0; i < moves.length; i++) {
+      plan[i] = new int[] { moveFrom(moves[i]), moveTo(moves[i]), moveAmount(moves[i]) };
     }
-    return parent.getSolutionPath() + action + ",";
+    return plan;
   }
 
   @Override
   public boolean equals(Object obj) {
     if (this == obj)
       return true;
-    if (obj == null || getClass() != obj.getClass())
+    if (!(obj instanceof Node))
       return false;
 
     Node node = (Node) obj;
 
-    return state.equals(node.state);
+    // Only compare the packed states when the Zobrist hashes collide
+    return hash == node.hash && Arrays.equals(getState(), node.getState());
   }
 
   @Override
   public int hashCode() {
-    return state.hashCode();
+    return Long.hashCode(hash);
   }
 
   public int getHeuristic() {
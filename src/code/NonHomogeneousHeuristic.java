@@ -0,0 +1,32 @@
+package code;
+
+// Second Heuristic: Number of Non-Homogeneous Bottles, a bottle counts when a layer
+// above its bottom one differs from the top layer
+public class NonHomogeneousHeuristic implements Heuristic {
+
+  @Override
+  public int estimate(StateLayout layout, long[] state) {
+    int nonHomogeneousCount = 0;
+
+    for (int b = 0; b < layout.getBottleCount(); b++) {
+      long bottle = layout.bottle(state, b);
+      if (layout.isEmpty(bottle)) {
+        continue;
+      }
+
+      // Layers above the bottom one must all match the top layer
+      boolean isHomogeneous = layout.topRun(bottle) >= layout.fill(bottle) - 1;
+
+      if (!isHomogeneous) {
+        nonHomogeneousCount++;
+      }
+    }
+
+    return nonHomogeneousCount;
+  }
+
+  @Override
+  public boolean isAdmissible() {
+    return true;
+  }
+}
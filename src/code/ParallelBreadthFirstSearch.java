@@ -0,0 +1,102 @@
+package code;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Level-synchronous breadth-first search. Every depth layer is expanded as one
+// batch split across a fork-join pool; children are deduplicated against a
+// shared closed set and goal-tested as soon as they are generated, so the
+// first goal found lies in the shallowest layer that contains one.
+public class ParallelBreadthFirstSearch {
+
+  // Below this many nodes a layer slice is expanded by a single task
+  private static final int SEQUENTIAL_THRESHOLD = 256;
+
+  private final GenericSearch problem;
+  private final int threads;
+  private final boolean offHeap;
+  private final AtomicReference<Node> goal = new AtomicReference<>();
+  private ConcurrentClosedSet visited;
+
+  public ParallelBreadthFirstSearch(GenericSearch problem, int threads, boolean offHeap) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Parallel search needs at least one thread");
+    }
+    this.problem = problem;
+    this.threads = threads;
+    this.offHeap = offHeap;
+  }
+
+  public Node search() {
+    Node root = problem.getInitialState();
+    if (problem.isGoalState(root)) {
+      return root;
+    }
+    visited = new ConcurrentClosedSet(root.getState().length, threads * 4, offHeap);
+    long[] rootKey = problem.closedKey(root);
+    visited.add(rootKey, problem.closedHash(rootKey, root.getHash()));
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<Node> layer = Collections.singletonList(root);
+      while (!layer.isEmpty()) {
+        layer = pool.invoke(new ExpandLayer(layer, 0, layer.size()));
+        problem.getMetrics().frontierSize(layer.size());
+        problem.getMetrics().closedSize(visited.size());
+        if (goal.get() != null) {
+          return goal.get();
+        }
+      }
+      return null;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private class ExpandLayer extends RecursiveTask<List<Node>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Node> layer;
+    private final int from;
+    private final int to;
+
+    ExpandLayer(List<Node> layer, int from, int to) {
+      this.layer = layer;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Node> compute() {
+      if (to - from > SEQUENTIAL_THRESHOLD) {
+        int middle = (from + to) >>> 1;
+        ExpandLayer left = new ExpandLayer(layer, from, middle);
+        left.fork();
+        List<Node> right = new ExpandLayer(layer, middle, to).compute();
+        List<Node> next = left.join();
+        next.addAll(right);
+        return next;
+      }
+
+      List<Node> next = new ArrayList<>();
+      for (int i = from; i < to && goal.get() == null; i++) {
+        for (Node child : problem.expandNode(layer.get(i))) {
+          long[] key = problem.closedKey(child);
+          if (!visited.add(key, problem.closedHash(key, child.getHash()))) {
+            problem.getMetrics().duplicateRejected();
+            continue;
+          }
+          if (problem.isGoalState(child)) {
+            goal.compareAndSet(null, child);
+            return next;
+          }
+          next.add(child);
+        }
+      }
+      return next;
+    }
+  }
+}
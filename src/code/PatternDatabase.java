@@ -0,0 +1,304 @@
+package code;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Pattern database for one (bottles, capacity, colors) configuration. States are
+// abstracted by keeping patternSize colors and merging all others into one
+// wildcard color X. Abstract pours may move any number of matching layers, so
+// every real pour maps to an abstract one of the same cost and the stored
+// distances are admissible. The table is a sorted array of canonical abstract
+// states plus one byte of distance each, read through a memory-mapped file.
+//
+// File layout (native byte order): 9 header longs (magic, version, bottles,
+// capacity, colors, pattern size, words per key, entries, max distance), then
+// entries * words key longs, then entries distance bytes.
+public class PatternDatabase {
+
+  private static final long MAGIC = 0x5753_5044_4231_0000L; // "WSPDB1"
+  private static final long VERSION = 1;
+  private static final int HEADER_LONGS = 9;
+  private static final int MAX_DISTANCE = 255;
+
+  private final int bottleCount;
+  private final int capacity;
+  private final int colorCount;
+  private final int patternSize;
+  private final StateLayout abstractLayout;
+  private final int words;
+  private final int entries;
+  private final LongBuffer keys;
+  private final ByteBuffer distances;
+  // Returned for abstract states missing from the table, those cannot reach the goal
+  private final int deadEnd;
+
+  private PatternDatabase(int bottleCount, int capacity, int colorCount, int patternSize, int entries,
+      int maxDistance, LongBuffer keys, ByteBuffer distances) {
+    this.bottleCount = bottleCount;
+    this.capacity = capacity;
+    this.colorCount = colorCount;
+    this.patternSize = patternSize;
+    this.abstractLayout = abstractLayout(bottleCount, capacity, patternSize);
+    this.words = abstractLayout.getWords();
+    this.entries = entries;
+    this.keys = keys;
+    this.distances = distances;
+    this.deadEnd = maxDistance + 1;
+  }
+
+  private static StateLayout abstractLayout(int bottleCount, int capacity, int patternSize) {
+    List<String> names = new ArrayList<>();
+    for (int i = 1; i <= patternSize; i++) {
+      names.add("P" + i);
+    }
+    names.add("X");
+    return new StateLayout(bottleCount, capacity, names);
+  }
+
+  public static String fileName(int bottleCount, int capacity, int colorCount, int patternSize) {
+    return "watersort-" + bottleCount + "-" + capacity + "-" + colorCount + "-" + patternSize + ".pdb";
+  }
+
+  public static PatternDatabase load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      mapped.order(ByteOrder.nativeOrder());
+      LongBuffer header = mapped.asLongBuffer();
+      if (header.get(0) != MAGIC || header.get(1) != VERSION) {
+        throw new IOException("Not a pattern database: " + file);
+      }
+      int bottleCount = (int) header.get(2);
+      int capacity = (int) header.get(3);
+      int colorCount = (int) header.get(4);
+      int patternSize = (int) header.get(5);
+      int words = (int) header.get(6);
+      int entries = (int) header.get(7);
+      int maxDistance = (int) header.get(8);
+
+      int keysOffset = HEADER_LONGS * Long.BYTES;
+      int distancesOffset = keysOffset + entries * words * Long.BYTES;
+      LongBuffer keys = mapped.duplicate().order(ByteOrder.nativeOrder()).position(keysOffset)
+          .limit(distancesOffset).slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+      ByteBuffer distances = mapped.duplicate().position(distancesOffset).limit(distancesOffset + entries).slice();
+      return new PatternDatabase(bottleCount, capacity, colorCount, patternSize, entries, maxDistance, keys,
+          distances);
+    }
+  }
+
+  // Backward Dijkstra from the abstract goal over reversed abstract pours, written to file
+  public static void build(int bottleCount, int capacity, int colorCount, int patternSize, Path file)
+      throws IOException {
+    if (patternSize < 1 || patternSize > colorCount) {
+      throw new IllegalArgumentException("Pattern size must be between 1 and the number of colors");
+    }
+    if (colorCount > bottleCount) {
+      throw new IllegalArgumentException("Every color needs a bottle of its own in the goal state");
+    }
+    StateLayout layout = abstractLayout(bottleCount, capacity, patternSize);
+    int wildcard = patternSize + 1;
+
+    int[] full = new int[capacity];
+    long[] goal = layout.newState();
+    for (int b = 0; b < colorCount; b++) {
+      Arrays.fill(full, b < patternSize ? b + 1 : wildcard);
+      layout.setBottle(goal, b, layout.packBottle(full));
+    }
+    goal = layout.canonicalize(goal, false);
+
+    ClosedSet distance = new ClosedSet(layout.getWords(), 1 << 12, false, true);
+    List<long[]> states = new ArrayList<>();
+    BucketQueue<long[]> frontier = new BucketQueue<>();
+    distance.put(goal, layout.unorderedHash(goal), 0);
+    states.add(goal);
+    frontier.add(goal, 0, 0);
+
+    while (!frontier.isEmpty()) {
+      int d = frontier.peekPriority();
+      long[] state = frontier.poll();
+      if (distance.get(state, layout.unorderedHash(state), Integer.MAX_VALUE) < d) {
+        continue;
+      }
+      for (int b = 0; b < bottleCount; b++) {
+        long to = layout.bottle(state, b);
+        int fill = layout.fill(to);
+        if (fill == 0) {
+          continue;
+        }
+        int run = layout.topRun(to);
+        for (int a = 0; a < bottleCount; a++) {
+          if (a == b) {
+            continue;
+          }
+          int space = capacity - layout.fill(layout.bottle(state, a));
+          for (int k = 1; k <= Math.min(run, space); k++) {
+            // Before the pour b was empty or already showed the poured color on top
+            if (k < run || k == fill) {
+              long[] previous = layout.canonicalize(layout.pour(state, b, a, k), false);
+              long hash = layout.unorderedHash(previous);
+              if (d + k < distance.get(previous, hash, Integer.MAX_VALUE)) {
+                if (distance.put(previous, hash, d + k)) {
+                  states.add(previous);
+                }
+                frontier.add(previous, d + k, 0);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    states.sort(PatternDatabase::compareKeys);
+    int words = layout.getWords();
+    int maxDistance = 0;
+    byte[] stored = new byte[states.size()];
+    for (int i = 0; i < states.size(); i++) {
+      long[] state = states.get(i);
+      int d = Math.min(distance.get(state, layout.unorderedHash(state), Integer.MAX_VALUE), MAX_DISTANCE);
+      stored[i] = (byte) d;
+      maxDistance = Math.max(maxDistance, d);
+    }
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_LONGS * Long.BYTES + states.size() * (words * Long.BYTES + 1))
+          .order(ByteOrder.nativeOrder());
+      buffer.putLong(MAGIC).putLong(VERSION).putLong(bottleCount).putLong(capacity).putLong(colorCount)
+          .putLong(patternSize).putLong(words).putLong(states.size()).putLong(maxDistance);
+      for (long[] state : states) {
+        for (long word : state) {
+          buffer.putLong(word);
+        }
+      }
+      buffer.put(stored);
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private static int compareKeys(long[] a, long[] b) {
+    return Arrays.compare(a, b);
+  }
+
+  public boolean matches(StateLayout layout) {
+    return layout.getBottleCount() == bottleCount && layout.getCapacity() == capacity
+        && layout.getColorCount() == colorCount;
+  }
+
+  public int getEntries() {
+    return entries;
+  }
+
+  // Arrays one estimate works in, reused from node to node by one thread
+  public class Scratch {
+    private final int[] subset = new int[patternSize];
+    private final int[] mapping = new int[colorCount + 1];
+    private final int[] layers = new int[capacity];
+    private final long[] bottles = new long[bottleCount];
+    private final long[] key = abstractLayout.newState();
+
+    private PatternDatabase owner() {
+      return PatternDatabase.this;
+    }
+  }
+
+  public Scratch newScratch() {
+    return new Scratch();
+  }
+
+  // Whether scratch was made for this database and fits its arrays
+  public boolean owns(Scratch scratch) {
+    return scratch.owner() == this;
+  }
+
+  // Max over every patternSize-subset of the real colors of the abstract distance
+  public int estimate(StateLayout layout, long[] state, Scratch scratch) {
+    int[] subset = scratch.subset;
+    for (int i = 0; i < patternSize; i++) {
+      subset[i] = i + 1;
+    }
+    int[] mapping = scratch.mapping;
+    int best = 0;
+    while (true) {
+      Arrays.fill(mapping, patternSize + 1);
+      mapping[0] = 0;
+      for (int i = 0; i < patternSize; i++) {
+        mapping[subset[i]] = i + 1;
+      }
+      best = Math.max(best, lookup(project(layout, state, mapping, scratch)));
+
+      // Next subset in lexicographic order
+      int i = patternSize - 1;
+      while (i >= 0 && subset[i] == colorCount - patternSize + i + 1) {
+        i--;
+      }
+      if (i < 0) {
+        return best;
+      }
+      subset[i]++;
+      for (int j = i + 1; j < patternSize; j++) {
+        subset[j] = subset[j - 1] + 1;
+      }
+    }
+  }
+
+  // Canonical abstract key of state, like abstractLayout.canonicalize(projected, false)
+  // but built in the scratch arrays
+  private long[] project(StateLayout layout, long[] state, int[] mapping, Scratch scratch) {
+    int[] layers = scratch.layers;
+    long[] bottles = scratch.bottles;
+    for (int b = 0; b < bottleCount; b++) {
+      long bottle = layout.bottle(state, b);
+      int fill = layout.fill(bottle);
+      for (int k = 0; k < fill; k++) {
+        layers[k] = mapping[layout.layer(bottle, k)];
+      }
+      bottles[b] = abstractLayout.packBottle(layers, fill);
+    }
+    Arrays.sort(bottles);
+    long[] key = scratch.key;
+    Arrays.fill(key, 0);
+    for (int b = 0; b < bottleCount; b++) {
+      abstractLayout.setBottle(key, b, bottles[b]);
+    }
+    return key;
+  }
+
+  private int lookup(long[] key) {
+    int low = 0;
+    int high = entries - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int cmp = compareAt(middle, key);
+      if (cmp < 0) {
+        low = middle + 1;
+      } else if (cmp > 0) {
+        high = middle - 1;
+      } else {
+        return distances.get(middle) & 0xFF;
+      }
+    }
+    return deadEnd;
+  }
+
+  private int compareAt(int entry, long[] key) {
+    int base = entry * words;
+    for (int w = 0; w < words; w++) {
+      int cmp = Long.compare(keys.get(base + w), key[w]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,29 @@
+package code;
+
+import java.nio.file.*;
+
+public class PatternDatabaseBuilder {
+
+  // Usage: PatternDatabaseBuilder <bottles> <capacity> <colors> [patternSize] [outputDir]
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Usage: PatternDatabaseBuilder <bottles> <capacity> <colors> [patternSize] [outputDir]");
+      return;
+    }
+    int bottles = Integer.parseInt(args[0]);
+    int capacity = Integer.parseInt(args[1]);
+    int colors = Integer.parseInt(args[2]);
+    int patternSize = args.length > 3 ? Integer.parseInt(args[3]) : PatternDatabaseHeuristic.patternSize();
+    Path directory = args.length > 4 ? Paths.get(args[4]) : PatternDatabaseHeuristic.directory();
+
+    Path file = directory.resolve(PatternDatabase.fileName(bottles, capacity, colors, patternSize));
+    long startTime = System.nanoTime();
+    PatternDatabase.build(bottles, capacity, colors, patternSize, file);
+    long durationInMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+    System.out.println("Pattern database: " + file);
+    System.out.println("Entries: " + PatternDatabase.load(file).getEntries());
+    System.out.println("Size: " + (Files.size(file) / 1024) + " KB");
+    System.out.println("Build Time: " + durationInMillis + " ms");
+  }
+}
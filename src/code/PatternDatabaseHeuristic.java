@@ -0,0 +1,115 @@
+package code;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Fifth Heuristic: pattern database lookup. Databases are built ahead of time with
+// PatternDatabaseBuilder and memory-mapped on first use from -Dwatersort.pdb.dir
+// (default "pdb"), so solver JVMs share them through the page cache.
+public class PatternDatabaseHeuristic implements Heuristic {
+
+  private static final int DEFAULT_PATTERN_SIZE = 2;
+
+  private final ConcurrentHashMap<String, PatternDatabase> databases = new ConcurrentHashMap<>();
+  // Database of the layout seen last, so lookups skip the file name resolution
+  private volatile Binding last;
+
+  private static class Binding {
+    final StateLayout layout;
+    final PatternDatabase database;
+
+    Binding(StateLayout layout, PatternDatabase database) {
+      this.layout = layout;
+      this.database = database;
+    }
+  }
+
+  public static Path directory() {
+    return Paths.get(System.getProperty("watersort.pdb.dir", "pdb"));
+  }
+
+  public static int patternSize() {
+    return Integer.getInteger("watersort.pdb.patternSize", DEFAULT_PATTERN_SIZE);
+  }
+
+  @Override
+  public int estimate(StateLayout layout, long[] state) {
+    PatternDatabase database = bind(layout, state);
+    return database.estimate(layout, state, database.newScratch());
+  }
+
+  // Keeps the scratch space of each search thread, so nodes allocate nothing
+  @Override
+  public Heuristic forSearch() {
+    ThreadLocal<PatternDatabase.Scratch> scratch = new ThreadLocal<>();
+    return new Heuristic() {
+      @Override
+      public int estimate(StateLayout layout, long[] state) {
+        PatternDatabase database = bind(layout, state);
+        PatternDatabase.Scratch own = scratch.get();
+        if (own == null || !database.owns(own)) {
+          own = database.newScratch();
+          scratch.set(own);
+        }
+        return database.estimate(layout, state, own);
+      }
+
+      @Override
+      public boolean isAdmissible() {
+        return PatternDatabaseHeuristic.this.isAdmissible();
+      }
+    };
+  }
+
+  private PatternDatabase bind(StateLayout layout, long[] state) {
+    Binding binding = last;
+    if (binding == null || binding.layout != layout) {
+      checkColorCounts(layout, state);
+      binding = new Binding(layout, database(layout));
+      last = binding;
+    }
+    return binding.database;
+  }
+
+  // The abstract goal assumes every color fills exactly one bottle
+  private static void checkColorCounts(StateLayout layout, long[] state) {
+    int[] counts = new int[layout.getColorCount() + 1];
+    for (int b = 0; b < layout.getBottleCount(); b++) {
+      long bottle = layout.bottle(state, b);
+      for (int k = 0; k < layout.fill(bottle); k++) {
+        counts[layout.layer(bottle, k)]++;
+      }
+    }
+    for (int color = 1; color < counts.length; color++) {
+      if (counts[color] != layout.getCapacity()) {
+        throw new IllegalStateException("Pattern databases need exactly " + layout.getCapacity() + " layers of color "
+            + layout.getColorName(color) + ", found " + counts[color]);
+      }
+    }
+  }
+
+  public PatternDatabase database(StateLayout layout) {
+    int patternSize = Math.min(patternSize(), layout.getColorCount());
+    String name = PatternDatabase.fileName(layout.getBottleCount(), layout.getCapacity(), layout.getColorCount(),
+        patternSize);
+    Path file = directory().resolve(name);
+    return databases.computeIfAbsent(file.toAbsolutePath().toString(), key -> {
+      if (!Files.exists(file)) {
+        throw new IllegalStateException("No pattern database " + file + ", build it with code.PatternDatabaseBuilder "
+            + layout.getBottleCount() + " " + layout.getCapacity() + " " + layout.getColorCount() + " " + patternSize);
+      }
+      try {
+        return PatternDatabase.load(file);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  @Override
+  public boolean isAdmissible() {
+    return true;
+  }
+}
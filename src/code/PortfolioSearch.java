@@ -0,0 +1,180 @@
+package code;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Races several strategies on one grid, one task each, and returns the first
+// result that meets the requested guarantee: any solution, or with requireOptimal
+// only one from a strategy that guarantees the cheapest plan. The other searches are
+// then cancelled and dropped. A "no solution" answer ends the race as well, unless it
+// comes from SMA*, which can miss solutions that do not fit its memory budget. If
+// every racer that could meet the guarantee fails, the race fails too rather than
+// pass off another racer's plan as the cheapest.
+public class PortfolioSearch {
+
+  public static final String STRATEGY = "PORTFOLIO";
+
+  // How often the caller checks whether the race itself was cancelled
+  private static final long POLL_MILLIS = 50;
+
+  // Racers of every portfolio without an executor of its own. Threads are reused across
+  // races and exit after a minute idle.
+  private static final ExecutorService SHARED_RACERS = Executors.newCachedThreadPool(daemonThreads());
+
+  private final List<String> strategies;
+  private final boolean requireOptimal;
+  private final Executor racers;
+
+  public PortfolioSearch(List<String> strategies, boolean requireOptimal) {
+    this(strategies, requireOptimal, SHARED_RACERS);
+  }
+
+  // Racers run on the given executor. One with fewer threads than strategies runs them
+  // partly in turn, so the race takes longer but still ends on the same rules.
+  public PortfolioSearch(List<String> strategies, boolean requireOptimal, Executor racers) {
+    if (strategies.isEmpty()) {
+      throw new IllegalArgumentException("Portfolio needs at least one strategy");
+    }
+    if (strategies.contains(STRATEGY)) {
+      // Every racer would start a race of its own, without end
+      throw new IllegalArgumentException("A portfolio cannot race " + STRATEGY + " itself");
+    }
+    this.strategies = new ArrayList<>(strategies);
+    this.requireOptimal = requireOptimal;
+    this.racers = racers;
+  }
+
+  private static ThreadFactory daemonThreads() {
+    ThreadFactory defaults = Executors.defaultThreadFactory();
+    return runnable -> {
+      Thread thread = defaults.newThread(runnable);
+      thread.setName("portfolio-" + thread.getName());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  // Strategies from -Dwatersort.portfolio.strategies (GR2,AS1,UC by default), only
+  // optimal results with -Dwatersort.portfolio.optimal=true
+  public static PortfolioSearch fromSystemProperties() {
+    List<String> strategies = new ArrayList<>();
+    for (String strategy : System.getProperty("watersort.portfolio.strategies", "GR2,AS1,UC").split(",")) {
+      if (!strategy.trim().isEmpty()) {
+        strategies.add(strategy.trim());
+      }
+    }
+    return new PortfolioSearch(strategies, Boolean.getBoolean("watersort.portfolio.optimal"));
+  }
+
+  // Cheapest plan guaranteed: uniform cost or an admissible A*, IDA* or HDA*, and no
+  // macro moves
+  public static boolean isOptimal(String strategy, WaterSortSearch search) {
+    if (search.getMovePruning().isEnabled(MovePruning.Rule.MACRO_MOVES)) {
+      return false;
+    }
+    if ("UC".equals(strategy)) {
+      return true;
+    }
+    String family = HeuristicRegistry.family(strategy);
+    if (!"AS".equals(family) && !"IDA".equals(family) && !"PAS".equals(family)) {
+      return false;
+    }
+    return HeuristicRegistry.forStrategy(strategy).isAdmissible();
+  }
+
+  private static class Finish {
+    final String strategy;
+    final WaterSortSearch search;
+    final SearchResult result;
+    final Throwable error;
+
+    Finish(String strategy, WaterSortSearch search, SearchResult result, Throwable error) {
+      this.strategy = strategy;
+      this.search = search;
+      this.result = result;
+      this.error = error;
+    }
+  }
+
+  // Runs the race for grid. Cancelling owner, if given, cancels every racing search.
+  public SearchResult solve(String grid, GenericSearch owner) {
+    BlockingQueue<Finish> finished = new LinkedBlockingQueue<>();
+    List<WaterSortSearch> searches = new ArrayList<>();
+    for (String strategy : strategies) {
+      WaterSortSearch search = new WaterSortSearch(grid);
+      searches.add(search);
+      try {
+        racers.execute(() -> {
+          try {
+            finished.add(new Finish(strategy, search, search.solve(strategy), null));
+          } catch (RuntimeException | Error e) {
+            finished.add(new Finish(strategy, search, null, e));
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        finished.add(new Finish(strategy, search, null, e));
+      }
+    }
+
+    // Cost of the cheapest plan from a racer without the optimality guarantee
+    int unguaranteedCost = -1;
+    Throwable firstError = null;
+    try {
+      for (int pending = strategies.size(); pending > 0; ) {
+        Finish finish = finished.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (owner != null && owner.isCancelled()) {
+          throw new CancellationException("Search cancelled");
+        }
+        if (finish == null) {
+          continue;
+        }
+        pending--;
+        if (finish.error != null) {
+          firstError = firstError == null ? finish.error : firstError;
+          continue;
+        }
+        SearchResult result = finish.result;
+        if (!result.isSolved()) {
+          if (!"SMA".equals(HeuristicRegistry.family(finish.strategy))) {
+            return result;
+          }
+          continue;
+        }
+        if (!requireOptimal || isOptimal(finish.strategy, finish.search)) {
+          return result;
+        }
+        if (unguaranteedCost < 0 || result.getPathCost() < unguaranteedCost) {
+          unguaranteedCost = result.getPathCost();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted");
+    } finally {
+      for (WaterSortSearch search : searches) {
+        search.cancel();
+      }
+    }
+
+    if (unguaranteedCost >= 0) {
+      throw new IllegalStateException("No strategy that guarantees the cheapest plan finished, the best plan"
+          + " found costs " + unguaranteedCost + " and may not be optimal", firstError);
+    }
+    if (firstError instanceof RuntimeException) {
+      throw (RuntimeException) firstError;
+    }
+    if (firstError != null) {
+      throw new IllegalStateException("Portfolio search failed", firstError);
+    }
+    // Only SMA* ran and it found nothing within its budget
+    return new SearchResult(null, searches.get(0).getMetrics());
+  }
+}
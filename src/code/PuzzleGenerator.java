@@ -0,0 +1,124 @@
+package code;
+
+import java.util.*;
+
+// Seeded generator of solvable puzzles in the "n;cap;..." input format. It starts
+// from a sorted state (one full bottle per color, the rest empty) and applies random
+// reverse pours. A reverse pour is only kept if replaying it forward with the normal
+// pour rules gives back the state it started from, so the sorted state stays
+// reachable from every generated puzzle.
+public class PuzzleGenerator {
+
+  private static final String[] COLOR_NAMES = { "r", "y", "b", "g", "o", "p", "c", "m", "w", "k", "n", "t", "v",
+      "x", "z", "a", "d", "f", "h", "i", "j", "l", "q", "s", "u" };
+
+  private final int bottleCount;
+  private final int capacity;
+  private final int colorCount;
+  private final StateLayout layout;
+
+  public PuzzleGenerator(int bottleCount, int capacity, int colorCount) {
+    if (colorCount < 1 || colorCount >= bottleCount) {
+      throw new IllegalArgumentException("Need at least one color and at least one more bottle than colors");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Bottle capacity must be positive");
+    }
+    this.bottleCount = bottleCount;
+    this.capacity = capacity;
+    this.colorCount = colorCount;
+    List<String> names = new ArrayList<>();
+    for (int c = 0; c < colorCount; c++) {
+      names.add(colorName(c));
+    }
+    this.layout = new StateLayout(bottleCount, capacity, names);
+  }
+
+  // Single letters first (never "e", which marks an empty slot), then c<number>
+  public static String colorName(int color) {
+    return color < COLOR_NAMES.length ? COLOR_NAMES[color] : "c" + color;
+  }
+
+  // Puzzle after up to scrambleDepth reverse pours; the same seed gives the same puzzle
+  public String generate(int scrambleDepth, long seed) {
+    Random random = new Random(seed);
+    long[] state = layout.newState();
+    int[] full = new int[capacity];
+    for (int b = 0; b < colorCount; b++) {
+      Arrays.fill(full, b + 1);
+      layout.setBottle(state, b, layout.packBottle(full));
+    }
+
+    long[] previous = null;
+    List<long[]> candidates = new ArrayList<>();
+    for (int step = 0; step < scrambleDepth; step++) {
+      candidates.clear();
+      for (int b = 0; b < bottleCount; b++) {
+        long poured = layout.bottle(state, b);
+        int run = layout.fill(poured) == 0 ? 0 : layout.topRun(poured);
+        for (int a = 0; a < bottleCount; a++) {
+          if (a == b) {
+            continue;
+          }
+          int space = capacity - layout.fill(layout.bottle(state, a));
+          for (int k = 1; k <= Math.min(run, space); k++) {
+            // Take k layers back from b to a, then check that a forward pour from a redoes it
+            long[] before = layout.pour(state, b, a, k);
+            if (!Arrays.equals(before, previous) && replaysTo(before, a, b, state)) {
+              candidates.add(before);
+            }
+          }
+        }
+      }
+      if (candidates.isEmpty()) {
+        break;
+      }
+      previous = state;
+      state = candidates.get(random.nextInt(candidates.size()));
+    }
+    return format(shuffleBottles(state, random));
+  }
+
+  private boolean replaysTo(long[] before, int from, int to, long[] after) {
+    long source = layout.bottle(before, from);
+    long target = layout.bottle(before, to);
+    if (!layout.canPour(source, target)) {
+      return false;
+    }
+    return Arrays.equals(layout.pour(before, from, to, layout.pourAmount(source, target)), after);
+  }
+
+  // Bottle order does not affect solvability
+  private long[] shuffleBottles(long[] state, Random random) {
+    long[] bottles = new long[bottleCount];
+    for (int b = 0; b < bottleCount; b++) {
+      bottles[b] = layout.bottle(state, b);
+    }
+    for (int b = bottleCount - 1; b > 0; b--) {
+      int other = random.nextInt(b + 1);
+      long swap = bottles[b];
+      bottles[b] = bottles[other];
+      bottles[other] = swap;
+    }
+    long[] shuffled = layout.newState();
+    for (int b = 0; b < bottleCount; b++) {
+      layout.setBottle(shuffled, b, bottles[b]);
+    }
+    return shuffled;
+  }
+
+  // Layers are listed top first, with "e" for the empty slots above the liquid
+  private String format(long[] state) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(bottleCount).append(';').append(capacity).append(';');
+    for (int b = 0; b < bottleCount; b++) {
+      long bottle = layout.bottle(state, b);
+      int fill = layout.fill(bottle);
+      for (int k = capacity - 1; k >= 0; k--) {
+        sb.append(k >= fill ? "e" : layout.getColorName(layout.layer(bottle, k)));
+        sb.append(k > 0 ? ',' : ';');
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,186 @@
+package code;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+// JDK Flight Recorder events for searches. Start and finish events are committed
+// once per search, frontier samples come from a periodic hook over the running
+// searches and the heuristic histogram is flushed from SearchMetrics when a search
+// ends, so nothing is recorded per node. Enable with e.g.
+// -XX:StartFlightRecording:settings=profile and look for the "Water Sort" category.
+public class SearchEvents {
+
+  private static final int MAX_HISTOGRAM_EVENTS = SearchMetrics.HEURISTIC_BUCKETS;
+
+  // Running searches and their strategies, read by the periodic frontier sampler
+  private static final Map<GenericSearch, String> running = new ConcurrentHashMap<>();
+
+  static {
+    FlightRecorder.addPeriodicEvent(FrontierSample.class, SearchEvents::sampleFrontiers);
+  }
+
+  private SearchEvents() {
+  }
+
+  @Name("watersort.SearchStarted")
+  @Label("Search Started")
+  @Category({ "Water Sort", "Search" })
+  @StackTrace(false)
+  static class SearchStarted extends Event {
+    @Label("Strategy")
+    String strategy;
+    @Label("Bottles")
+    int bottles;
+    @Label("Capacity")
+    int capacity;
+    @Label("Colors")
+    int colors;
+  }
+
+  @Name("watersort.Search")
+  @Label("Search")
+  @Description("One search from start to finish")
+  @Category({ "Water Sort", "Search" })
+  @StackTrace(false)
+  static class Search extends Event {
+    @Label("Strategy")
+    String strategy;
+    @Label("Bottles")
+    int bottles;
+    @Label("Capacity")
+    int capacity;
+    @Label("Colors")
+    int colors;
+    @Label("Solved")
+    boolean solved;
+    @Label("Path Cost")
+    int pathCost;
+    @Label("Nodes Expanded")
+    long expanded;
+    @Label("Nodes Generated")
+    long generated;
+    @Label("Duplicates Rejected")
+    long duplicates;
+    @Label("Heuristic Evaluations")
+    long heuristicEvaluations;
+    @Label("Peak Frontier")
+    long peakFrontier;
+    @Label("Peak Closed")
+    long peakClosed;
+  }
+
+  @Name("watersort.FrontierSample")
+  @Label("Frontier Sample")
+  @Category({ "Water Sort", "Search" })
+  @Period("1 s")
+  @StackTrace(false)
+  static class FrontierSample extends Event {
+    @Label("Strategy")
+    String strategy;
+    @Label("Frontier")
+    long frontier;
+    @Label("Closed")
+    long closed;
+    @Label("Nodes Expanded")
+    long expanded;
+  }
+
+  @Name("watersort.HeuristicHistogram")
+  @Label("Heuristic Histogram")
+  @Description("How often a search's heuristic returned a value, one event per value")
+  @Category({ "Water Sort", "Heuristic" })
+  @StackTrace(false)
+  static class HeuristicHistogram extends Event {
+    @Label("Strategy")
+    String strategy;
+    @Label("Heuristic Value")
+    @Description("The last bucket also counts every larger value")
+    int value;
+    @Label("Evaluations")
+    long count;
+  }
+
+  // Returns the duration event to pass to finished, begun if it is enabled
+  static Search started(GenericSearch search, String strategy) {
+    running.put(search, strategy);
+    // Checked once per search, a recording started mid-search misses its histogram
+    if (new HeuristicHistogram().isEnabled()) {
+      search.getMetrics().countHeuristicValues();
+    }
+    StateLayout layout = search.getLayout();
+    SearchStarted started = new SearchStarted();
+    if (started.shouldCommit()) {
+      started.strategy = strategy;
+      if (layout != null) {
+        started.bottles = layout.getBottleCount();
+        started.capacity = layout.getCapacity();
+        started.colors = layout.getColorCount();
+      }
+      started.commit();
+    }
+    Search event = new Search();
+    event.begin();
+    return event;
+  }
+
+  static void finished(Search event, GenericSearch search, String strategy, Node solution) {
+    running.remove(search);
+    SearchMetrics metrics = search.getMetrics();
+    event.end();
+    if (event.shouldCommit()) {
+      StateLayout layout = search.getLayout();
+      event.strategy = strategy;
+      if (layout != null) {
+        event.bottles = layout.getBottleCount();
+        event.capacity = layout.getCapacity();
+        event.colors = layout.getColorCount();
+      }
+      event.solved = solution != null;
+      event.pathCost = solution == null ? -1 : solution.getPathCost();
+      event.expanded = metrics.getNodesExpanded();
+      event.generated = metrics.getNodesGenerated();
+      event.duplicates = metrics.getDuplicatesRejected();
+      event.heuristicEvaluations = metrics.getHeuristicEvaluations();
+      event.peakFrontier = metrics.getPeakFrontierSize();
+      event.peakClosed = metrics.getPeakClosedSize();
+      event.commit();
+    }
+
+    if (metrics.getHeuristicEvaluations() > 0) {
+      for (int value = 0; value < MAX_HISTOGRAM_EVENTS; value++) {
+        long count = metrics.getHeuristicCount(value);
+        if (count == 0) {
+          continue;
+        }
+        HeuristicHistogram bucket = new HeuristicHistogram();
+        if (!bucket.shouldCommit()) {
+          return;
+        }
+        bucket.strategy = strategy;
+        bucket.value = value;
+        bucket.count = count;
+        bucket.commit();
+      }
+    }
+  }
+
+  private static void sampleFrontiers() {
+    for (Map.Entry<GenericSearch, String> entry : running.entrySet()) {
+      SearchMetrics metrics = entry.getKey().getMetrics();
+      FrontierSample sample = new FrontierSample();
+      sample.strategy = entry.getValue();
+      sample.frontier = metrics.getFrontierSize();
+      sample.closed = metrics.getClosedSize();
+      sample.expanded = metrics.getNodesExpanded();
+      sample.commit();
+    }
+  }
+}
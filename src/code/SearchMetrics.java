@@ -0,0 +1,153 @@
+package code;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters of one search run. Counters are LongAdders and sizes AtomicLongs, so
+// parallel strategies update them from all their threads. Sizes are reported on every
+// expansion, so they are published with lazySet and a peak is only touched when it
+// grows.
+public class SearchMetrics {
+
+  // Heuristic values are counted per value, the last bucket also takes every larger one
+  public static final int HEURISTIC_BUCKETS = 64;
+
+  public enum Phase {
+    // Building the root node and per-strategy state
+    PREPARE,
+    SEARCH,
+    // Turning the goal node into a plan
+    RECONSTRUCT
+  }
+
+  private final LongAdder expanded = new LongAdder();
+  private final LongAdder generated = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+  private final LongAdder heuristicEvaluations = new LongAdder();
+  private final AtomicLong peakFrontier = new AtomicLong();
+  private final AtomicLong peakClosed = new AtomicLong();
+  private final EnumMap<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+  // Counts per heuristic value, null unless a JFR recording takes the histogram
+  private LongAdder[] heuristicValues;
+  // Latest reported sizes, for sampling a running search
+  private final AtomicLong frontier = new AtomicLong();
+  private final AtomicLong closed = new AtomicLong();
+
+  public SearchMetrics() {
+    for (Phase phase : Phase.values()) {
+      phaseNanos.put(phase, new LongAdder());
+    }
+  }
+
+  // Starts counting heuristic values; called before the search starts its threads
+  void countHeuristicValues() {
+    LongAdder[] values = new LongAdder[HEURISTIC_BUCKETS];
+    for (int i = 0; i < HEURISTIC_BUCKETS; i++) {
+      values[i] = new LongAdder();
+    }
+    heuristicValues = values;
+  }
+
+  public void nodeExpanded() {
+    expanded.increment();
+  }
+
+  public void nodeGenerated() {
+    generated.increment();
+  }
+
+  public void nodesGenerated(long count) {
+    generated.add(count);
+  }
+
+  public void duplicateRejected() {
+    duplicates.increment();
+  }
+
+  public void heuristicEvaluated(int value) {
+    heuristicEvaluations.increment();
+    LongAdder[] values = heuristicValues;
+    if (values != null) {
+      values[Math.max(0, Math.min(value, HEURISTIC_BUCKETS - 1))].increment();
+    }
+  }
+
+  public void frontierSize(long size) {
+    frontier.lazySet(size);
+    raisePeak(peakFrontier, size);
+  }
+
+  public void closedSize(long size) {
+    closed.lazySet(size);
+    raisePeak(peakClosed, size);
+  }
+
+  // A stale plain read only sees a lower peak, so the CAS loop still runs when it must
+  private static void raisePeak(AtomicLong peak, long size) {
+    if (size > peak.getPlain()) {
+      peak.accumulateAndGet(size, Math::max);
+    }
+  }
+
+  public void addPhaseNanos(Phase phase, long nanos) {
+    phaseNanos.get(phase).add(nanos);
+  }
+
+  public long getNodesExpanded() {
+    return expanded.sum();
+  }
+
+  public long getNodesGenerated() {
+    return generated.sum();
+  }
+
+  public long getDuplicatesRejected() {
+    return duplicates.sum();
+  }
+
+  public long getHeuristicEvaluations() {
+    return heuristicEvaluations.sum();
+  }
+
+  // 0 for every value unless the histogram was being counted
+  public long getHeuristicCount(int value) {
+    LongAdder[] values = heuristicValues;
+    return values == null ? 0 : values[value].sum();
+  }
+
+  public long getFrontierSize() {
+    return frontier.get();
+  }
+
+  public long getClosedSize() {
+    return closed.get();
+  }
+
+  public long getPeakFrontierSize() {
+    return peakFrontier.get();
+  }
+
+  public long getPeakClosedSize() {
+    return peakClosed.get();
+  }
+
+  public long getPhaseNanos(Phase phase) {
+    return phaseNanos.get(phase).sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("expanded=").append(getNodesExpanded())
+        .append(", generated=").append(getNodesGenerated())
+        .append(", duplicates=").append(getDuplicatesRejected())
+        .append(", heuristicEvaluations=").append(getHeuristicEvaluations())
+        .append(", peakFrontier=").append(getPeakFrontierSize())
+        .append(", peakClosed=").append(getPeakClosedSize());
+    for (Phase phase : Phase.values()) {
+      sb.append(", ").append(phase.name().toLowerCase()).append("Nanos=").append(getPhaseNanos(phase));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,56 @@
+package code;
+
+// Outcome of one solve: the goal node (null if there is none) and the metrics of
+// the search that produced it. toString gives the "plan;cost;expanded" format.
+public class SearchResult {
+
+  private final Node solution;
+  private final SearchMetrics metrics;
+  // Built on first use, callers that only need the moves never pay for the text
+  private String plan;
+
+  public SearchResult(Node solution, SearchMetrics metrics) {
+    this.solution = solution;
+    this.metrics = metrics;
+  }
+
+  public boolean isSolved() {
+    return solution != null;
+  }
+
+  public Node getSolution() {
+    return solution;
+  }
+
+  // Comma separated pour_i_j actions, null if unsolved. The first call builds the text
+  // and counts the time as the RECONSTRUCT phase.
+  public synchronized String getPlan() {
+    if (plan == null && solution != null) {
+      long start = System.nanoTime();
+      plan = solution.getSolutionPath();
+      metrics.addPhaseNanos(SearchMetrics.Phase.RECONSTRUCT, System.nanoTime() - start);
+    }
+    return plan;
+  }
+
+  // {from, to, amount} per pour, null if unsolved
+  public int[][] getMoves() {
+    return solution == null ? null : solution.getPlan();
+  }
+
+  public int getPathCost() {
+    return solution == null ? -1 : solution.getPathCost();
+  }
+
+  public SearchMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public String toString() {
+    if (solution == null) {
+      return "NOSOLUTION";
+    }
+    return String.format("%s;%d;%d", getPlan(), solution.getPathCost(), metrics.getNodesExpanded());
+  }
+}
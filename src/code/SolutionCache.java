@@ -0,0 +1,352 @@
+package code;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Cache in front of WaterSortSearch.solve, keyed by strategy and canonical grid. The
+// canonical grid is the puzzle with its bottles sorted and its colors renumbered in
+// order of first appearance, like StateLayout.canonicalize, so a level seen again with
+// its bottles shuffled or its colors renamed is a hit. Entries hold the plan as packed
+// moves on the canonical bottles and are mapped back to the caller's bottle indices on
+// every hit. A hit returns the plan, cost and expansions of the solve that filled the
+// entry, which may differ from a fresh solve of a reordered grid by strategies that
+// depend on bottle order.
+//
+// Eviction is LRU, bounded by the number of entries and by their estimated size in
+// bytes. With a file, every new entry is appended to it and the file is replayed on
+// open, so a restarted process starts warm.
+public class SolutionCache implements Closeable {
+
+  // Rough per-entry overhead of the map node, key strings and entry object
+  private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+  private static SolutionCache shared;
+  private static boolean sharedLoaded;
+
+  private final int maxEntries;
+  private final long maxWeightBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Writer log;
+  private long weightBytes;
+  private long hits;
+  private long misses;
+
+  public SolutionCache(int maxEntries, long maxWeightBytes, Path file) throws IOException {
+    if (maxEntries < 1 || maxWeightBytes < 1) {
+      throw new IllegalArgumentException("Cache needs room for at least one entry");
+    }
+    this.maxEntries = maxEntries;
+    this.maxWeightBytes = maxWeightBytes;
+    if (file == null) {
+      log = null;
+      return;
+    }
+    boolean endsLine = true;
+    if (Files.exists(file)) {
+      replay(file);
+      endsLine = endsWithNewline(file);
+    }
+    log = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+    if (!endsLine) {
+      // Terminate the line a crash cut short, so the next record starts on its own line
+      log.write('\n');
+      log.flush();
+    }
+  }
+
+  private static boolean endsWithNewline(Path file) throws IOException {
+    try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+      if (channel.size() == 0) {
+        return true;
+      }
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.position(channel.size() - 1);
+      channel.read(last);
+      return last.get(0) == '\n';
+    }
+  }
+
+  // Cache used by WaterSortSearch.solve, null unless -Dwatersort.cache.entries is set.
+  // -Dwatersort.cache.maxBytes bounds its size (64 MB by default) and
+  // -Dwatersort.cache.file makes it persistent.
+  public static synchronized SolutionCache shared() {
+    if (!sharedLoaded) {
+      sharedLoaded = true;
+      int maxEntries = Integer.getInteger("watersort.cache.entries", 0);
+      if (maxEntries > 0) {
+        String file = System.getProperty("watersort.cache.file");
+        try {
+          shared = new SolutionCache(maxEntries, Long.getLong("watersort.cache.maxBytes", 64L << 20),
+              file == null ? null : Paths.get(file));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    return shared;
+  }
+
+  // Same result format as WaterSortSearch.solve
+  public String solve(String grid, String strategy) {
+    Canonical canonical = canonicalize(grid);
+    String key = strategy + '\t' + canonical.key;
+    Entry entry = get(key);
+    if (entry != null) {
+      return entry.format(canonical.order);
+    }
+
+    SearchResult result = new WaterSortSearch(grid).solve(strategy);
+    int[] moves = null;
+    if (result.isSolved()) {
+      // Stored on the canonical bottles
+      int[] inverse = new int[canonical.order.length];
+      for (int c = 0; c < inverse.length; c++) {
+        inverse[canonical.order[c]] = c;
+      }
+      moves = result.getSolution().getMoves();
+      for (int i = 0; i < moves.length; i++) {
+        moves[i] = Node.move(inverse[Node.moveFrom(moves[i])], inverse[Node.moveTo(moves[i])],
+            Node.moveAmount(moves[i]));
+      }
+    }
+    put(key, new Entry(moves, result.getPathCost(), result.getMetrics().getNodesExpanded()), true);
+    return result.toString();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getWeightBytes() {
+    return weightBytes;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  private synchronized Entry get(String key) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return entry;
+  }
+
+  private synchronized void put(String key, Entry entry, boolean persist) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      weightBytes -= weight(key, previous);
+    }
+    weightBytes += weight(key, entry);
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (entries.size() > 1 && (entries.size() > maxEntries || weightBytes > maxWeightBytes)) {
+      Map.Entry<String, Entry> evicted = eldest.next();
+      weightBytes -= weight(evicted.getKey(), evicted.getValue());
+      eldest.remove();
+    }
+    if (persist && log != null && previous == null) {
+      try {
+        log.write(key + '\t' + entry.encode() + '\n');
+        log.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static long weight(String key, Entry entry) {
+    return ENTRY_OVERHEAD_BYTES + 2L * key.length() + (entry.moves == null ? 0 : 4L * entry.moves.length);
+  }
+
+  // Lines are "strategy \t key \t cost \t expanded \t moves \t move count". The move
+  // count ends the record: a line cut short by a crash loses it or has moves that do
+  // not match it, and is skipped.
+  private void replay(Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 6) {
+          continue;
+        }
+        try {
+          Entry entry = Entry.decode(fields[2], fields[3], fields[4], fields[5]);
+          if (entry.fits(bottleCount(fields[1]))) {
+            put(fields[0] + '\t' + fields[1], entry, false);
+          }
+        } catch (IllegalArgumentException e) {
+          // Skip the damaged line
+        }
+      }
+    }
+  }
+
+  // Leading "bottles;" of a canonical key
+  private static int bottleCount(String key) {
+    int end = key.indexOf(';');
+    if (end < 0) {
+      throw new IllegalArgumentException("Not a canonical grid: " + key);
+    }
+    return Integer.parseInt(key.substring(0, end));
+  }
+
+  private static class Entry {
+    // Packed moves on the canonical bottles, null if there is no solution
+    final int[] moves;
+    final int cost;
+    final long expanded;
+
+    Entry(int[] moves, int cost, long expanded) {
+      this.moves = moves;
+      this.cost = cost;
+      this.expanded = expanded;
+    }
+
+    String format(int[] order) {
+      if (moves == null) {
+        return "NOSOLUTION";
+      }
+      StringBuilder sb = new StringBuilder(moves.length * 10 + 16);
+      for (int move : moves) {
+        sb.append("pour_").append(order[Node.moveFrom(move)]).append('_').append(order[Node.moveTo(move)])
+            .append(',');
+      }
+      return sb.append(';').append(cost).append(';').append(expanded).toString();
+    }
+
+    // Whether every move stays within bottleCount bottles
+    boolean fits(int bottleCount) {
+      if (moves == null) {
+        return true;
+      }
+      for (int move : moves) {
+        if (Node.moveFrom(move) >= bottleCount || Node.moveTo(move) >= bottleCount) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // "cost \t expanded \t moves \t move count", with moves "-" and count -1 for no solution
+    String encode() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(cost).append('\t').append(expanded).append('\t');
+      if (moves == null) {
+        return sb.append("-\t-1").toString();
+      }
+      for (int i = 0; i < moves.length; i++) {
+        sb.append(i > 0 ? "," : "").append(Integer.toHexString(moves[i]));
+      }
+      return sb.append('\t').append(moves.length).toString();
+    }
+
+    static Entry decode(String cost, String expanded, String moves, String count) {
+      int[] decoded = null;
+      int expectedCount = Integer.parseInt(count);
+      if (!moves.equals("-")) {
+        String[] parts = moves.isEmpty() ? new String[0] : moves.split(",");
+        decoded = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+          decoded[i] = Integer.parseUnsignedInt(parts[i], 16);
+        }
+      }
+      if (expectedCount != (decoded == null ? -1 : decoded.length)) {
+        throw new IllegalArgumentException("Record holds " + (decoded == null ? "no plan" : decoded.length + " moves")
+            + " but says " + expectedCount);
+      }
+      return new Entry(decoded, Integer.parseInt(cost), Long.parseLong(expanded));
+    }
+  }
+
+  // Canonical key of a grid and, per canonical bottle, the grid's bottle index
+  static class Canonical {
+    final String key;
+    final int[] order;
+
+    Canonical(String key, int[] order) {
+      this.key = key;
+      this.order = order;
+    }
+  }
+
+  static Canonical canonicalize(String grid) {
+    String[] parts = grid.split(";");
+    int bottleCount = Integer.parseInt(parts[0]);
+    int capacity = Integer.parseInt(parts[1]);
+    // Layers bottom first, without the empty slots
+    List<List<String>> bottles = new ArrayList<>();
+    for (int i = 0; i < bottleCount; i++) {
+      List<String> layers = new ArrayList<>(Arrays.asList(parts[2 + i].split(",")));
+      Collections.reverse(layers);
+      layers.removeIf("e"::equals);
+      bottles.add(layers);
+    }
+
+    // Sort by what does not depend on color names first (which layers repeat an
+    // earlier color of the same bottle), then by the names
+    Integer[] order = new Integer[bottleCount];
+    for (int i = 0; i < bottleCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparing((Integer i) -> pattern(bottles.get(i)))
+        .thenComparing(i -> String.join(",", bottles.get(i))));
+
+    // Number colors in order of first appearance, bottom layer first, then sort again
+    Map<String, Integer> relabel = new HashMap<>();
+    int[][] renamed = new int[bottleCount][];
+    for (int i : order) {
+      List<String> layers = bottles.get(i);
+      renamed[i] = new int[layers.size()];
+      for (int k = 0; k < layers.size(); k++) {
+        Integer color = relabel.get(layers.get(k));
+        if (color == null) {
+          color = relabel.size() + 1;
+          relabel.put(layers.get(k), color);
+        }
+        renamed[i][k] = color;
+      }
+    }
+    Arrays.sort(order, (a, b) -> Arrays.compare(renamed[a], renamed[b]));
+
+    StringBuilder key = new StringBuilder();
+    key.append(bottleCount).append(';').append(capacity).append(';');
+    int[] result = new int[bottleCount];
+    for (int c = 0; c < bottleCount; c++) {
+      result[c] = order[c];
+      int[] layers = renamed[order[c]];
+      for (int k = 0; k < layers.length; k++) {
+        key.append(k > 0 ? "," : "").append(layers[k]);
+      }
+      key.append(';');
+    }
+    return new Canonical(key.toString(), result);
+  }
+
+  // Layer colors replaced by their first index in the bottle, e.g. r,y,r -> 0,1,0
+  private static String pattern(List<String> layers) {
+    StringBuilder sb = new StringBuilder();
+    for (String layer : layers) {
+      sb.append(layers.indexOf(layer)).append(',');
+    }
+    return sb.toString();
+  }
+}
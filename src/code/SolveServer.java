@@ -0,0 +1,338 @@
+package code;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Long-running solve service on the JDK HttpServer, so the JVM starts (and the JIT
+// warms up) once instead of once per request. Jobs run on a shared BatchSolver, the
+// HTTP threads only parse requests and wait for their outcomes.
+//
+//   GET  /solve?grid=...&strategy=AS1[&timeoutMillis=...]
+//   POST /solve     body: "<strategy> <grid>"
+//   POST /batch     body: one "<strategy> <grid>" job per line, answered in order
+//   GET  /metrics   counters since start
+//
+// Answers are the "plan;cost;expanded" strings of WaterSortSearch.solve (TIMEOUT,
+// CANCELLED or ERROR for jobs that did not finish), one per line, or JSON with ?format=json or an
+// Accept: application/json header.
+public class SolveServer {
+
+  private final HttpServer server;
+  private final ExecutorService httpThreads;
+  private final BatchSolver solver;
+  private final long startNanos = System.nanoTime();
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder jobs = new LongAdder();
+  private final EnumMap<BatchSolver.Status, LongAdder> outcomes = new EnumMap<>(BatchSolver.Status.class);
+  private final LongAdder nodesExpanded = new LongAdder();
+  private final LongAdder nodesGenerated = new LongAdder();
+  private final LongAdder solveNanos = new LongAdder();
+
+  public SolveServer(InetSocketAddress address, int httpThreadCount, BatchSolver solver) throws IOException {
+    if (httpThreadCount < 1) {
+      throw new IllegalArgumentException("Server needs at least one HTTP thread");
+    }
+    for (BatchSolver.Status status : BatchSolver.Status.values()) {
+      outcomes.put(status, new LongAdder());
+    }
+    this.solver = solver;
+    this.server = HttpServer.create(address, 0);
+    this.httpThreads = Executors.newFixedThreadPool(httpThreadCount);
+    server.setExecutor(httpThreads);
+    server.createContext("/solve", exchange -> handle(exchange, this::solve));
+    server.createContext("/batch", exchange -> handle(exchange, this::batch));
+    server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+  }
+
+  // Usage: SolveServer [port]. Port 8080 by default, bound to localhost unless
+  // -Dwatersort.server.host is set. -Dwatersort.server.httpThreads sets the HTTP pool,
+  // -Dwatersort.server.warmup the number of generated puzzles solved before the port
+  // opens; the solver itself is configured through the watersort.batch.* properties.
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    String host = System.getProperty("watersort.server.host", "localhost");
+    int httpThreadCount = Integer.getInteger("watersort.server.httpThreads",
+        Runtime.getRuntime().availableProcessors());
+    SolveServer server = new SolveServer(new InetSocketAddress(host, port), httpThreadCount,
+        BatchSolver.fromSystemProperties());
+    server.warmUp(Integer.getInteger("watersort.server.warmup", 50));
+    server.start();
+    System.out.println("Listening on http://" + host + ":" + server.getPort());
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    httpThreads.shutdown();
+    solver.close();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  // Solves small generated puzzles with a few strategies so the search code is
+  // compiled before the first request. Warm-up solves are not counted in the metrics.
+  public void warmUp(int puzzles) throws InterruptedException {
+    if (puzzles <= 0) {
+      return;
+    }
+    PuzzleGenerator generator = new PuzzleGenerator(6, 4, 4);
+    String[] strategies = { "AS1", "GR2", "UC" };
+    List<BatchSolver.Job> warmup = new ArrayList<>();
+    for (int i = 0; i < puzzles; i++) {
+      warmup.add(new BatchSolver.Job(generator.generate(60, i), strategies[i % strategies.length], 5000));
+    }
+    solver.solveAll(warmup);
+  }
+
+  private interface Handler {
+    Response handle(HttpExchange exchange, boolean json) throws IOException, InterruptedException;
+  }
+
+  private static class Response {
+    final int status;
+    final String body;
+
+    Response(int status, String body) {
+      this.status = status;
+      this.body = body;
+    }
+  }
+
+  private void handle(HttpExchange exchange, Handler handler) throws IOException {
+    requests.increment();
+    boolean json = wantsJson(exchange);
+    Response response;
+    try {
+      response = handler.handle(exchange, json);
+    } catch (IllegalArgumentException e) {
+      response = error(400, e.getMessage(), json);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      response = error(503, "Interrupted", json);
+    } catch (RuntimeException e) {
+      response = error(500, String.valueOf(e), json);
+    }
+    byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type",
+        (json ? "application/json" : "text/plain") + "; charset=utf-8");
+    exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private Response solve(HttpExchange exchange, boolean json) throws IOException, InterruptedException {
+    Map<String, String> query = query(exchange);
+    BatchSolver.Job job;
+    if ("GET".equals(exchange.getRequestMethod())) {
+      String grid = query.get("grid");
+      if (grid == null) {
+        throw new IllegalArgumentException("Missing grid parameter");
+      }
+      job = new BatchSolver.Job(grid, query.getOrDefault("strategy", "AS1"), timeout(query));
+    } else if ("POST".equals(exchange.getRequestMethod())) {
+      job = parseJob(body(exchange).trim(), timeout(query));
+    } else {
+      return error(405, "Use GET or POST", json);
+    }
+
+    BatchSolver.Outcome outcome = run(Collections.singletonList(job)).get(0);
+    switch (outcome.getStatus()) {
+      case TIMED_OUT:
+        return new Response(504, json ? toJson(outcome) : outcome + "\n");
+      case CANCELLED:
+        return new Response(503, json ? toJson(outcome) : outcome + "\n");
+      case FAILED:
+        int status = outcome.getError() instanceof IllegalArgumentException ? 400 : 500;
+        return json ? new Response(status, toJson(outcome)) : error(status, outcome.getError().getMessage(), false);
+      default:
+        return new Response(200, json ? toJson(outcome) : outcome + "\n");
+    }
+  }
+
+  private Response batch(HttpExchange exchange, boolean json) throws IOException, InterruptedException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      return error(405, "Use POST", json);
+    }
+    long timeoutMillis = timeout(query(exchange));
+    List<BatchSolver.Job> batch = new ArrayList<>();
+    for (String line : body(exchange).split("\n")) {
+      if (!line.trim().isEmpty()) {
+        batch.add(parseJob(line.trim(), timeoutMillis));
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    if (json) {
+      sb.append('[');
+    }
+    for (BatchSolver.Outcome outcome : run(batch)) {
+      if (json) {
+        sb.append(outcome.getIndex() > 0 ? "," : "").append(toJson(outcome));
+      } else {
+        sb.append(outcome).append('\n');
+      }
+    }
+    if (json) {
+      sb.append(']');
+    }
+    return new Response(200, sb.toString());
+  }
+
+  private Response metrics(HttpExchange exchange, boolean json) {
+    Map<String, Long> values = new LinkedHashMap<>();
+    values.put("uptimeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    values.put("requests", requests.sum());
+    values.put("jobs", jobs.sum());
+    values.put("solved", outcomes.get(BatchSolver.Status.SOLVED).sum());
+    values.put("noSolution", outcomes.get(BatchSolver.Status.NO_SOLUTION).sum());
+    values.put("timedOut", outcomes.get(BatchSolver.Status.TIMED_OUT).sum());
+    values.put("failed", outcomes.get(BatchSolver.Status.FAILED).sum());
+    values.put("cancelled", outcomes.get(BatchSolver.Status.CANCELLED).sum());
+    values.put("nodesExpanded", nodesExpanded.sum());
+    values.put("nodesGenerated", nodesGenerated.sum());
+    values.put("solveMillis", TimeUnit.NANOSECONDS.toMillis(solveNanos.sum()));
+    Runtime runtime = Runtime.getRuntime();
+    values.put("heapUsedBytes", runtime.totalMemory() - runtime.freeMemory());
+
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Long> entry : values.entrySet()) {
+      if (json) {
+        sb.append(sb.length() == 0 ? "{" : ",").append(quote(entry.getKey())).append(':').append(entry.getValue());
+      } else {
+        sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+      }
+    }
+    if (json) {
+      sb.append('}');
+    }
+    return new Response(200, sb.toString());
+  }
+
+  private List<BatchSolver.Outcome> run(List<BatchSolver.Job> batch) throws InterruptedException {
+    List<BatchSolver.Outcome> results = solver.solveAll(batch);
+    for (BatchSolver.Outcome outcome : results) {
+      jobs.increment();
+      outcomes.get(outcome.getStatus()).increment();
+      solveNanos.add(outcome.getNanos());
+      if (outcome.getMetrics() != null) {
+        nodesExpanded.add(outcome.getMetrics().getNodesExpanded());
+        nodesGenerated.add(outcome.getMetrics().getNodesGenerated());
+      }
+    }
+    return results;
+  }
+
+  // "<strategy> <grid>", grids never contain whitespace
+  private static BatchSolver.Job parseJob(String line, long timeoutMillis) {
+    String[] parts = line.split("\\s+");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Expected \"<strategy> <grid>\": " + line);
+    }
+    return new BatchSolver.Job(parts[1], parts[0], timeoutMillis);
+  }
+
+  private static long timeout(Map<String, String> query) {
+    String value = query.get("timeoutMillis");
+    return value == null ? -1 : Long.parseLong(value);
+  }
+
+  private static boolean wantsJson(HttpExchange exchange) {
+    if ("json".equals(query(exchange).get("format"))) {
+      return true;
+    }
+    String accept = exchange.getRequestHeaders().getFirst("Accept");
+    return accept != null && accept.contains("application/json");
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) {
+    Map<String, String> values = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return values;
+    }
+    for (String pair : query.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+        values.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return values;
+  }
+
+  private static String body(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String toJson(BatchSolver.Outcome outcome) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"index\":").append(outcome.getIndex())
+        .append(",\"status\":").append(quote(outcome.getStatus().name()))
+        .append(",\"result\":").append(quote(outcome.toString()));
+    SearchResult result = outcome.getResult();
+    if (result != null && result.isSolved()) {
+      sb.append(",\"cost\":").append(result.getPathCost()).append(",\"moves\":[");
+      int[][] moves = result.getMoves();
+      for (int i = 0; i < moves.length; i++) {
+        sb.append(i > 0 ? "," : "").append('[').append(moves[i][0]).append(',').append(moves[i][1])
+            .append(',').append(moves[i][2]).append(']');
+      }
+      sb.append(']');
+    }
+    if (outcome.getMetrics() != null) {
+      sb.append(",\"expanded\":").append(outcome.getMetrics().getNodesExpanded())
+          .append(",\"generated\":").append(outcome.getMetrics().getNodesGenerated());
+    }
+    if (outcome.getError() != null && outcome.getStatus() == BatchSolver.Status.FAILED) {
+      sb.append(",\"error\":").append(quote(String.valueOf(outcome.getError().getMessage())));
+    }
+    sb.append(",\"millis\":").append(TimeUnit.NANOSECONDS.toMillis(outcome.getNanos())).append('}');
+    return sb.toString();
+  }
+
+  private static Response error(int status, String message, boolean json) {
+    return new Response(status, json ? "{\"error\":" + quote(String.valueOf(message)) + "}" : "ERROR " + message + "\n");
+  }
+
+  private static String quote(String value) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
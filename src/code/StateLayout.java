@@ -0,0 +1,287 @@
+package code;
+
+import java.util.*;
+
+// Packs a water sort state into a long[]: every bottle is a fixed-width run of
+// layer slots (bottom layer in the lowest bits), color id 0 marks an empty slot.
+// A bottle has to fit in one long, so capacity is limited to maxCapacity(colors),
+// e.g. 21 layers with up to 7 colors or 16 with up to 15.
+public class StateLayout {
+
+  private final int bottleCount;
+  private final int capacity;
+  private final String[] colors;
+  private final int bitsPerLayer;
+  private final int bottleBits;
+  private final int bottlesPerWord;
+  private final int words;
+  private final long layerMask;
+  private final long bottleMask;
+  // repeated[n] holds n slots of color id 1 so a color run is color * repeated[n]
+  private final long[] repeated;
+  // zobrist[bottle][color][k] is the XOR of the keys of slots 0..k-1 holding color, so
+  // any run of one color hashes in O(1) as zobrist[b][c][end] ^ zobrist[b][c][start]
+  private final long[][][] zobrist;
+
+  public StateLayout(int bottleCount, int capacity, List<String> colorNames) {
+    this.bottleCount = bottleCount;
+    this.capacity = capacity;
+    this.colors = new String[colorNames.size() + 1];
+    for (int i = 0; i < colorNames.size(); i++) {
+      colors[i + 1] = colorNames.get(i);
+    }
+
+    if (capacity > maxCapacity(colorNames.size())) {
+      throw new IllegalArgumentException("Bottle capacity " + capacity + " with " + colorNames.size()
+          + " colors is not supported, at most " + maxCapacity(colorNames.size()) + " layers fit");
+    }
+    this.bitsPerLayer = bitsPerLayer(colorNames.size());
+    this.bottleBits = bitsPerLayer * capacity;
+    this.bottlesPerWord = Long.SIZE / bottleBits;
+    this.words = Math.max(1, (bottleCount + bottlesPerWord - 1) / bottlesPerWord);
+    this.layerMask = (1L << bitsPerLayer) - 1;
+    this.bottleMask = bottleBits == Long.SIZE ? -1L : (1L << bottleBits) - 1;
+
+    this.repeated = new long[capacity + 1];
+    for (int n = 1; n <= capacity; n++) {
+      repeated[n] = repeated[n - 1] | (1L << ((n - 1) * bitsPerLayer));
+    }
+
+    SplittableRandom random = new SplittableRandom(0x5EED_CAFE_F00DL);
+    this.zobrist = new long[bottleCount][colors.length][capacity + 1];
+    for (int b = 0; b < bottleCount; b++) {
+      for (int c = 1; c < colors.length; c++) {
+        for (int k = 1; k <= capacity; k++) {
+          zobrist[b][c][k] = zobrist[b][c][k - 1] ^ random.nextLong();
+        }
+      }
+    }
+  }
+
+  // Largest bottle capacity whose layers fit in one long with colorCount colors
+  public static int maxCapacity(int colorCount) {
+    return Long.SIZE / bitsPerLayer(colorCount);
+  }
+
+  private static int bitsPerLayer(int colorCount) {
+    return Math.max(1, 32 - Integer.numberOfLeadingZeros(colorCount));
+  }
+
+  public int getBottleCount() {
+    return bottleCount;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getColorCount() {
+    return colors.length - 1;
+  }
+
+  public String getColorName(int color) {
+    return colors[color];
+  }
+
+  public int getWords() {
+    return words;
+  }
+
+  public long[] newState() {
+    return new long[words];
+  }
+
+  // Packs one bottle from its color ids, bottom layer first
+  public long packBottle(int[] layersBottomUp) {
+    return packBottle(layersBottomUp, layersBottomUp.length);
+  }
+
+  // Packs the first fill entries of layersBottomUp
+  public long packBottle(int[] layersBottomUp, int fill) {
+    if (fill > capacity) {
+      throw new IllegalStateException("Bottle is full");
+    }
+    long bottle = 0;
+    for (int k = 0; k < fill; k++) {
+      bottle |= ((long) layersBottomUp[k]) << (k * bitsPerLayer);
+    }
+    return bottle;
+  }
+
+  public long bottle(long[] state, int i) {
+    return (state[i / bottlesPerWord] >>> ((i % bottlesPerWord) * bottleBits)) & bottleMask;
+  }
+
+  public void setBottle(long[] state, int i, long bottle) {
+    int shift = (i % bottlesPerWord) * bottleBits;
+    int w = i / bottlesPerWord;
+    state[w] = (state[w] & ~(bottleMask << shift)) | (bottle << shift);
+  }
+
+  public int layer(long bottle, int k) {
+    return (int) ((bottle >>> (k * bitsPerLayer)) & layerMask);
+  }
+
+  public int fill(long bottle) {
+    int usedBits = Long.SIZE - Long.numberOfLeadingZeros(bottle);
+    return (usedBits + bitsPerLayer - 1) / bitsPerLayer;
+  }
+
+  public boolean isEmpty(long bottle) {
+    return bottle == 0;
+  }
+
+  public boolean isFull(long bottle) {
+    return fill(bottle) == capacity;
+  }
+
+  public int topColor(long bottle) {
+    int fill = fill(bottle);
+    return fill == 0 ? 0 : layer(bottle, fill - 1);
+  }
+
+  public int topRun(long bottle) {
+    int fill = fill(bottle);
+    if (fill == 0) {
+      return 0;
+    }
+    // XOR against a bottle made entirely of the top color leaves only the differing slots set
+    long diff = bottle ^ (layer(bottle, fill - 1) * repeated[fill]);
+    return fill - fill(diff);
+  }
+
+  public int bottomRun(long bottle) {
+    int fill = fill(bottle);
+    if (fill == 0) {
+      return 0;
+    }
+    long diff = bottle ^ (layer(bottle, 0) * repeated[fill]);
+    return diff == 0 ? fill : Long.numberOfTrailingZeros(diff) / bitsPerLayer;
+  }
+
+  public boolean isSorted(long bottle) {
+    return bottle == 0 || (isFull(bottle) && topRun(bottle) == capacity);
+  }
+
+  public boolean isHomogeneous(long bottle) {
+    return topRun(bottle) == fill(bottle);
+  }
+
+  public boolean canPour(long from, long to) {
+    return from != 0 && !isFull(to) && (to == 0 || topColor(from) == topColor(to));
+  }
+
+  public int pourAmount(long from, long to) {
+    return Math.min(topRun(from), capacity - fill(to));
+  }
+
+  // Returns a copy of state with amount layers moved from bottle i to bottle j
+  public long[] pour(long[] state, int i, int j, int amount) {
+    long from = bottle(state, i);
+    long to = bottle(state, j);
+    int fromFill = fill(from);
+    int toFill = fill(to);
+    long color = topColor(from);
+
+    long[] next = state.clone();
+    setBottle(next, i, from & (repeated[fromFill - amount] * layerMask));
+    setBottle(next, j, to | ((color * repeated[amount]) << (toFill * bitsPerLayer)));
+    return next;
+  }
+
+  public long hash(long[] state) {
+    long hash = 0;
+    for (int i = 0; i < bottleCount; i++) {
+      long bottle = bottle(state, i);
+      for (int k = 0; k < fill(bottle); k++) {
+        int color = layer(bottle, k);
+        hash ^= zobrist[i][color][k + 1] ^ zobrist[i][color][k];
+      }
+    }
+    return hash;
+  }
+
+  // Hash of the state produced by pour(state, i, j, amount), derived from the parent's hash
+  public long pourHash(long hash, long[] state, int i, int j, int amount) {
+    long from = bottle(state, i);
+    int fromFill = fill(from);
+    int toFill = fill(bottle(state, j));
+    int color = layer(from, fromFill - 1);
+
+    long[] fromKeys = zobrist[i][color];
+    long[] toKeys = zobrist[j][color];
+    return hash ^ fromKeys[fromFill] ^ fromKeys[fromFill - amount] ^ toKeys[toFill + amount] ^ toKeys[toFill];
+  }
+
+  // Representative of the states equal to this one up to reordering the bottles and,
+  // optionally, renaming the colors. Equal results always mean symmetric states.
+  public long[] canonicalize(long[] state, boolean relabelColors) {
+    long[] bottles = new long[bottleCount];
+    for (int i = 0; i < bottleCount; i++) {
+      bottles[i] = bottle(state, i);
+    }
+    Arrays.sort(bottles);
+
+    if (relabelColors) {
+      // Number colors in order of first appearance, bottom layer first, in the sorted bottles
+      int[] relabel = new int[colors.length];
+      int next = 1;
+      for (int i = 0; i < bottleCount; i++) {
+        long bottle = bottles[i];
+        long renamed = 0;
+        for (int k = 0; k < fill(bottle); k++) {
+          int color = layer(bottle, k);
+          if (relabel[color] == 0) {
+            relabel[color] = next++;
+          }
+          renamed |= ((long) relabel[color]) << (k * bitsPerLayer);
+        }
+        bottles[i] = renamed;
+      }
+      Arrays.sort(bottles);
+    }
+
+    long[] canonical = newState();
+    for (int i = 0; i < bottleCount; i++) {
+      setBottle(canonical, i, bottles[i]);
+    }
+    return canonical;
+  }
+
+  // Hash that ignores bottle order: a sum of independently mixed bottle codes
+  public long unorderedHash(long[] state) {
+    long hash = 0;
+    for (int i = 0; i < bottleCount; i++) {
+      long z = bottle(state, i) + 0x9E3779B97F4A7C15L;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      hash += z ^ (z >>> 31);
+    }
+    return hash;
+  }
+
+  public boolean isGoal(long[] state) {
+    for (int i = 0; i < bottleCount; i++) {
+      if (!isSorted(bottle(state, i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Bottle toBottle(long bottle) {
+    Bottle result = new Bottle(capacity);
+    for (int k = 0; k < fill(bottle); k++) {
+      result.addLayer(colors[layer(bottle, k)]);
+    }
+    return result;
+  }
+
+  public List<Bottle> toBottles(long[] state) {
+    List<Bottle> bottles = new ArrayList<>(bottleCount);
+    for (int i = 0; i < bottleCount; i++) {
+      bottles.add(toBottle(bottle(state, i)));
+    }
+    return bottles;
+  }
+}
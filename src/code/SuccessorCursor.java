@@ -0,0 +1,60 @@
+package code;
+
+import java.util.*;
+
+// Walks the successors of one node move by move. The child's hash and path cost come
+// straight from the move, its packed state is built on the first state() call and the
+// full Node (heuristic, action, parent link) only on the first child() call, so
+// searches can reject duplicates before paying for the child.
+public interface SuccessorCursor {
+
+  // Moves to the next successor, false once there are none left
+  boolean advance();
+
+  long hash();
+
+  long[] state();
+
+  int pathCost();
+
+  int depth();
+
+  Node child();
+
+  // Cursor over already built children, for problems without a lazy expansion
+  static SuccessorCursor of(List<Node> children) {
+    return new SuccessorCursor() {
+      private int index = -1;
+
+      @Override
+      public boolean advance() {
+        return ++index < children.size();
+      }
+
+      @Override
+      public long hash() {
+        return child().getHash();
+      }
+
+      @Override
+      public long[] state() {
+        return child().getState();
+      }
+
+      @Override
+      public int pathCost() {
+        return child().getPathCost();
+      }
+
+      @Override
+      public int depth() {
+        return child().getDepth();
+      }
+
+      @Override
+      public Node child() {
+        return children.get(index);
+      }
+    };
+  }
+}
@@ -4,211 +4,375 @@ import java.util.*;
 
 public class WaterSortSearch extends GenericSearch {
 
-  private List<Bottle> initialState;
+  private StateLayout layout;
+  private final String grid;
+  private long[] initialState;
+  private Heuristic activeHeuristic;
+  private Priority priority = Priority.NONE;
+  // On by default: canonical keys cost a sort per lookup but cut expansions 2-5x for UC, A* and greedy
+  private boolean symmetryReduction = !"false".equals(System.getProperty("watersort.symmetry"));
+  private boolean colorSymmetry = Boolean.getBoolean("watersort.colorSymmetry");
+  private final MovePruning pruning = MovePruning.fromSystemProperties();
+  // Every checkpointInterval-th level stores full states, the levels between are DeltaNodes (0: off)
+  private int checkpointInterval = Integer.getInteger("watersort.deltaNodes", 0);
+  // Replaced on every search so no rebuilt state outlives the search that made it
+  private DeltaNode.StateCache deltaStates;
 
   public WaterSortSearch(String initialStateString) {
+    this.grid = initialStateString;
     this.initialState = parseInitialState(initialStateString);
+    this.deltaStates = new DeltaNode.StateCache(layout);
   }
 
-  private List<Bottle> parseInitialState(String initialStateString) {
+  private long[] parseInitialState(String initialStateString) {
     String[] parts = initialStateString.split(";");
     int numberOfBottles = Integer.parseInt(parts[0]);
     int bottleCapacity = Integer.parseInt(parts[1]);
 
-    List<Bottle> bottles = new ArrayList<>();
+    // Intern colors into small ids (0 is reserved for an empty slot)
+    Map<String, Integer> colorIds = new LinkedHashMap<>();
+    int[][] bottles = new int[numberOfBottles][];
     for (int i = 0; i < numberOfBottles; i++) {
       String[] colors = parts[2 + i].split(",");
 
       List<String> reversedColors = Arrays.asList(colors);
       Collections.reverse(reversedColors);
 
-      Bottle bottle = new Bottle(bottleCapacity);
+      int[] layers = new int[colors.length];
+      int size = 0;
       for (String color : reversedColors) {
         if (!color.equals("e")) {
-          bottle.addLayer(color);
+          Integer id = colorIds.get(color);
+          if (id == null) {
+            id = colorIds.size() + 1;
+            colorIds.put(color, id);
+          }
+          layers[size++] = id;
         }
       }
-      bottles.add(bottle);
+      bottles[i] = Arrays.copyOf(layers, size);
+    }
+
+    // Packed states keep each bottle in one long, which bounds the capacity
+    int maxCapacity = StateLayout.maxCapacity(colorIds.size());
+    if (bottleCapacity > maxCapacity) {
+      throw new IllegalArgumentException("Bottle capacity " + bottleCapacity + " is not supported with "
+          + colorIds.size() + " colors, the solver handles at most " + maxCapacity + " layers per bottle");
     }
-    return bottles;
+    layout = new StateLayout(numberOfBottles, bottleCapacity, new ArrayList<>(colorIds.keySet()));
+    long[] state = layout.newState();
+    for (int i = 0; i < numberOfBottles; i++) {
+      layout.setBottle(state, i, layout.packBottle(bottles[i]));
+    }
+    return state;
   }
 
   @Override
-  public boolean isGoalState(Node node) {
-    List<Bottle> bottles = node.getState();
-    for (Bottle bottle : bottles) {
-      if (!isBottleSorted(bottle)) {
-        return false;
-      }
-    }
-    return true;
+  public StateLayout getLayout() {
+    return layout;
+  }
+
+  public MovePruning getMovePruning() {
+    return pruning;
+  }
+
+  public void setSymmetryReduction(boolean symmetryReduction) {
+    this.symmetryReduction = symmetryReduction;
+  }
+
+  public void setColorSymmetry(boolean colorSymmetry) {
+    this.colorSymmetry = colorSymmetry;
   }
 
-  private boolean isBottleSorted(Bottle bottle) {
-    if (bottle.isEmpty()) {
-      return true;
+  public void setCheckpointInterval(int checkpointInterval) {
+    if (checkpointInterval < 0) {
+      throw new IllegalArgumentException("Checkpoint interval must not be negative");
     }
+    this.checkpointInterval = checkpointInterval;
+  }
 
-    String topColor = bottle.topLayer();
-    Stack<String> layers = bottle.getLayers();
+  // Closed sets see bottle permutations (and color renamings) of a state as one
+  // state, nodes keep their real bottle order so pour_i_j actions stay valid
+  @Override
+  protected long[] closedKey(long[] state) {
+    if (!symmetryReduction) {
+      return state;
+    }
+    return layout.canonicalize(state, colorSymmetry);
+  }
 
-    if (layers.size() == bottle.getCapacity()) {
-      for (String layer : layers) {
-        if (!layer.equals(topColor)) {
-          return false;
-        }
-      }
-      return true;
+  // Without symmetry reduction the key is the state itself and keeps its incremental hash
+  @Override
+  protected long closedHash(long[] key, long hash) {
+    if (!symmetryReduction) {
+      return hash;
     }
+    return layout.unorderedHash(key);
+  }
 
-    return false;
+  @Override
+  public boolean isGoalState(Node node) {
+    return layout.isGoal(node.getState());
+  }
+
+  @Override
+  protected void prepareSearch(String strategy) {
+    Heuristic heuristic = HeuristicRegistry.forStrategy(strategy);
+    activeHeuristic = heuristic == null ? null : heuristic.forSearch();
+    priority = Priority.of(strategy);
+    deltaStates = new DeltaNode.StateCache(layout);
   }
 
   @Override
   public Node getInitialState() {
-    return new Node(initialState, null, null, 0, 0);
+    return new Node(initialState, layout.hash(initialState), null, Node.NO_MOVE, 0, evaluateHeuristic(initialState));
+  }
+
+  @Override
+  public Node restoreNode(long[] state) {
+    return new Node(state, layout.hash(state), null, Node.NO_MOVE, 0, evaluateHeuristic(state));
+  }
+
+  // Evaluated once per node when it is created, priorities then just read Node.getHeuristic()
+  private int evaluateHeuristic(long[] state) {
+    if (activeHeuristic == null) {
+      return 0;
+    }
+    int estimate = activeHeuristic.estimate(layout, state);
+    getMetrics().heuristicEvaluated(estimate);
+    return estimate;
   }
 
   @Override
   public List<Node> expandNode(Node node) {
     List<Node> children = new ArrayList<>();
-    List<Bottle> currentState = node.getState();
+    SuccessorCursor successors = successors(node);
+    while (successors.advance()) {
+      children.add(successors.child());
+    }
+    return children;
+  }
+
+  @Override
+  public SuccessorCursor successors(Node node) {
+    checkCancelled();
+    getMetrics().nodeExpanded();
+    return new PourCursor(node);
+  }
 
-    incrementNodesExpanded();
+  // Legal pours of one node in expandNode order, with the pruning rules applied
+  private class PourCursor implements SuccessorCursor {
+
+    private final Node node;
+    private final long[] currentState;
+    private final Node grandparent;
+    private final int bottleCount = layout.getBottleCount();
+    private int i;
+    private int j = -1;
+    private long from;
+    private boolean fromHomogeneous;
+    private boolean pouredIntoEmpty;
+
+    private int layers;
+    private long hash;
+    private long[] state;
+    private Node child;
+
+    PourCursor(Node node) {
+      this.node = node;
+      this.currentState = node.getState();
+      this.grandparent = node.getParent();
+      startSource();
+    }
 
-    for (int i = 0; i < currentState.size(); i++) {
-      for (int j = 0; j < currentState.size(); j++) {
-        if (i != j && isValidAction(currentState.get(i), currentState.get(j))) {
-          // Shallow copy the current state
-          List<Bottle> newState = new ArrayList<>(currentState);
+    private void startSource() {
+      from = i < bottleCount ? layout.bottle(currentState, i) : 0;
+      fromHomogeneous = layout.isHomogeneous(from);
+      pouredIntoEmpty = false;
+    }
 
-          // Deep copy only the bottles involved in the action
-          Bottle newBottleI = new Bottle(currentState.get(i).emptySpaces() + currentState.get(i).getLayers().size());
-          for (String layer : currentState.get(i).getLayers()) {
-            newBottleI.addLayer(layer);
+    @Override
+    public boolean advance() {
+      while (i < bottleCount) {
+        if (++j == bottleCount) {
+          i++;
+          j = -1;
+          startSource();
+          continue;
+        }
+        if (layout.isEmpty(from)) {
+          j = bottleCount - 1;
+          continue;
+        }
+        long to = layout.bottle(currentState, j);
+        if (i == j || !isValidAction(from, to)) {
+          continue;
+        }
+        if (layout.isEmpty(to)) {
+          if (fromHomogeneous && pruning.prune(MovePruning.Rule.HOMOGENEOUS_TO_EMPTY)) {
+            continue;
           }
-          Bottle newBottleJ = new Bottle(currentState.get(j).emptySpaces() + currentState.get(j).getLayers().size());
-          for (String layer : currentState.get(j).getLayers()) {
-            newBottleJ.addLayer(layer);
+          if (pouredIntoEmpty && pruning.prune(MovePruning.Rule.EQUIVALENT_EMPTY_TARGET)) {
+            continue;
           }
+          pouredIntoEmpty = true;
+        }
 
-          newState.set(i, newBottleI);
-          newState.set(j, newBottleJ);
-
-          int layers = newState.get(i).pourInto(newState.get(j));
-
-          String action = "pour_" + i + "_" + j;
-          Node child = new Node(newState, node, action, node.getPathCost() + layers, node.getHeuristic()); // 3adely
-                                                                                                           // path cost
-                                                                                                           // hena
-          children.add(child);
+        layers = layout.pourAmount(from, to);
+        hash = layout.pourHash(node.getHash(), currentState, i, j, layers);
+        state = null;
+        child = null;
+        if (grandparent != null && hash == grandparent.getHash()
+            && Arrays.equals(state(), grandparent.getState())
+            && pruning.prune(MovePruning.Rule.IMMEDIATE_UNDO)) {
+          continue;
+        }
+        if (pruning.isEnabled(MovePruning.Rule.MACRO_MOVES)) {
+          // The chained pours decide the child, so it has to be built right away
+          child = applyCompletingPours(child());
+          hash = child.getHash();
+          state = child.getState();
         }
+        getMetrics().nodeGenerated();
+        return true;
       }
+      return false;
     }
-    return children;
-  }
-
-  private boolean isValidAction(Bottle from, Bottle to) {
-    return !from.isEmpty() && (to.isEmpty() || from.topLayer().equals(to.topLayer())) && !to.isFull();
-  }
 
-  @Override
-  protected int getNodePriority(Node node, String strategy) {
-    double heuristicValue = 0;
-    List<Bottle> bottles = node.getState();
+    @Override
+    public long hash() {
+      return hash;
+    }
 
-    switch (strategy) {
-      case "UC":
-        return node.getPathCost(); // UCS uses only path cost (g(n))
-      case "GR1":
-      case "AS1":
-        heuristicValue = calculateMisplacedLayersHeuristic(bottles);
-        break;
-      case "GR2":
-      case "AS2":
-        heuristicValue = calculateNonHomogeneousHeuristic(bottles);
-        break;
-      default:
-        throw new IllegalArgumentException("Invalid informed search strategy: " + strategy);
+    @Override
+    public long[] state() {
+      if (state == null) {
+        state = layout.pour(currentState, i, j, layers);
+      }
+      return state;
     }
 
-    if (strategy.startsWith("GR")) {
-      return (int) heuristicValue; // Greedy uses only the heuristic
-    } else if (strategy.startsWith("AS")) {
-      return node.getPathCost() + (int) heuristicValue; // A* uses path cost + heuristic
-    } else {
-      throw new IllegalArgumentException("Unsupported strategy for node priority.");
+    @Override
+    public int pathCost() {
+      return child != null ? child.getPathCost() : node.getPathCost() + layers;
     }
-  }
 
-  // First Heuristic: Number of Misplaced Layers
-  private double calculateMisplacedLayersHeuristic(List<Bottle> bottles) {
-    int misplacedLayers = 0;
+    @Override
+    public int depth() {
+      return child != null ? child.getDepth() : node.getDepth() + 1;
+    }
 
-    for (Bottle bottle : bottles) {
-      if (bottle.isEmpty()) {
-        continue;
+    @Override
+    public Node child() {
+      if (child == null) {
+        long[] newState = state();
+        int move = Node.move(i, j, layers);
+        if (checkpointInterval > 0 && (node.getDepth() + 1) % checkpointInterval != 0) {
+          child = new DeltaNode(deltaStates, hash, node, move, node.getPathCost() + layers, evaluateHeuristic(newState));
+        } else {
+          child = new Node(newState, hash, node, move, node.getPathCost() + layers, evaluateHeuristic(newState));
+        }
       }
+      return child;
+    }
+  }
 
-      String topLayer = bottle.topLayer();
-      Stack<String> layers = bottle.getLayers();
-
-      for (int i = 1; i < layers.size(); i++) {
-        if (!layers.get(i).equals(topLayer) && !layers.get(i).equals("e")) {
-          misplacedLayers++;
+  // Macro moves: keep pouring while some pour fills a single-color bottle to the top.
+  // Sources are never finished bottles, so every pour completes one more bottle and the
+  // chain ends. The intermediate nodes stay on the parent chain so the plan lists every pour.
+  private Node applyCompletingPours(Node node) {
+    int bottleCount = layout.getBottleCount();
+    boolean poured = true;
+    while (poured) {
+      poured = false;
+      long[] state = node.getState();
+      for (int j = 0; j < bottleCount && !poured; j++) {
+        long to = layout.bottle(state, j);
+        if (layout.isEmpty(to) || layout.isFull(to) || !layout.isHomogeneous(to)) {
+          continue;
+        }
+        int missing = layout.getCapacity() - layout.fill(to);
+        for (int i = 0; i < bottleCount; i++) {
+          long from = layout.bottle(state, i);
+          if (i != j && !layout.isSorted(from) && isValidAction(from, to) && layout.topRun(from) >= missing) {
+            long newHash = layout.pourHash(node.getHash(), state, i, j, missing);
+            long[] newState = layout.pour(state, i, j, missing);
+            node = new Node(newState, newHash, node, Node.move(i, j, missing), node.getPathCost() + missing,
+                evaluateHeuristic(newState));
+            pruning.prune(MovePruning.Rule.MACRO_MOVES);
+            poured = true;
+            break;
+          }
         }
       }
     }
-    return misplacedLayers;
+    return node;
   }
 
-  // Second Heuristic: Number of Non-Homogeneous Bottles
-  private double calculateNonHomogeneousHeuristic(List<Bottle> bottles) {
-    int nonHomogeneousCount = 0;
+  private boolean isValidAction(long from, long to) {
+    return layout.canPour(from, to);
+  }
 
-    for (Bottle bottle : bottles) {
-      if (bottle.isEmpty()) {
-        continue;
-      }
+  @Override
+  protected int getNodePriority(Node node) {
+    switch (priority) {
+      case PATH_COST:
+        return node.getPathCost(); // UCS uses only path cost (g(n))
+      case HEURISTIC:
+        return node.getHeuristic(); // Greedy uses only the heuristic
+      case TOTAL_COST:
+        return node.getPathCost() + node.getHeuristic(); // A* uses path cost + heuristic
+      default:
+        throw new IllegalStateException("Strategy has no node priority");
+    }
+  }
 
-      Stack<String> layers = bottle.getLayers();
-      String topLayer = bottle.topLayer();
-      boolean isHomogeneous = true;
+  // Node priority of a strategy, resolved once per search instead of per queued node
+  private enum Priority {
+    PATH_COST,
+    HEURISTIC,
+    TOTAL_COST,
+    NONE;
 
-      for (int i = 1; i < layers.size(); i++) {
-        if (!layers.get(i).equals(topLayer)) {
-          isHomogeneous = false;
-          break;
-        }
+    static Priority of(String strategy) {
+      if (strategy.equals("UC")) {
+        return PATH_COST;
       }
-
-      if (!isHomogeneous) {
-        nonHomogeneousCount++;
+      String family = HeuristicRegistry.family(strategy);
+      if ("GR".equals(family)) {
+        return HEURISTIC;
+      }
+      if ("AS".equals(family) || "SMA".equals(family) || "PAS".equals(family)) {
+        return TOTAL_COST;
       }
+      return NONE;
     }
-
-    return nonHomogeneousCount;
   }
 
   public static String solve(String initialState, String strategy, boolean visualize) {
+    SolutionCache cache = SolutionCache.shared();
+    if (cache != null && !visualize) {
+      return cache.solve(initialState, strategy);
+    }
     WaterSortSearch searchProblem = new WaterSortSearch(initialState);
-    Node solutionNode = searchProblem.search(strategy);
-
-    if (solutionNode == null) {
-      return "NOSOLUTION";
+    SearchResult result = searchProblem.solve(strategy);
+    if (visualize && result.isSolved()) {
+      visualizeSolution(result.getSolution(), searchProblem.getLayout());
     }
+    return result.toString();
+  }
 
-    String plan = solutionNode.getSolutionPath();
-    int pathCost = solutionNode.getPathCost();
-    int nodesExpanded = getNodesExpanded();
-    if (visualize) {
-      visualizeSolution(solutionNode);
+  // Runs one search and returns its goal node together with that search's metrics.
+  // PORTFOLIO races several strategies instead, see PortfolioSearch.
+  public SearchResult solve(String strategy) {
+    if (PortfolioSearch.STRATEGY.equals(strategy)) {
+      return PortfolioSearch.fromSystemProperties().solve(grid, this);
     }
-
-    return String.format("%s;%d;%d", plan, pathCost, nodesExpanded);
+    Node solutionNode = search(strategy);
+    return new SearchResult(solutionNode, getMetrics());
   }
 
-  private static void visualizeSolution(Node node) {
+  private static void visualizeSolution(Node node, StateLayout layout) {
     Node currentNode = node;
     Stack<Node> path = new Stack<>();
 
@@ -223,20 +387,10 @@ public class WaterSortSearch extends GenericSearch {
       if (n.getAction() != null) {
         System.out.println("Action: " + n.getAction());
       }
-      for (Bottle bottle : n.getState()) {
+      for (Bottle bottle : layout.toBottles(n.getState())) {
         bottle.printBottle();
       }
       System.out.println("----------------------");
     }
   }
-
-  private static int nodesExpanded = 0;
-
-  private static void incrementNodesExpanded() {
-    nodesExpanded++;
-  }
-
-  private static int getNodesExpanded() {
-    return nodesExpanded;
-  }
 }
@@ -1,10 +1,44 @@
 package tests;
 
+import code.BatchSolver;
+import code.ClosedSet;
+import code.Heuristic;
+import code.HeuristicRegistry;
+import code.IndexedOpenList;
+import code.MovePruning;
+import code.Node;
+import code.PatternDatabase;
+import code.PatternDatabaseHeuristic;
+import code.PortfolioSearch;
+import code.PuzzleGenerator;
+import code.SearchResult;
+import code.SolutionCache;
+import code.SolveServer;
+import code.StateLayout;
 import code.WaterSortSearch;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
 import static org.junit.Assert.*;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -91,6 +125,45 @@ public class PublicTests {
     assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
   }
 
+  @Test(timeout = 60000)
+  public void testa5() throws Exception {
+    // The default rules only drop redundant pours, toggling one keeps the cheapest cost
+    SearchResult all = new WaterSortSearch(grid2).solve("UC");
+    for (MovePruning.Rule rule : EnumSet.complementOf(EnumSet.of(MovePruning.Rule.MACRO_MOVES))) {
+      WaterSortSearch on = new WaterSortSearch(grid2);
+      on.getMovePruning().setEnabled(rule, true);
+      SearchResult pruned = on.solve("UC");
+      assertTrue(rule + " never fired", on.getMovePruning().getCount(rule) > 0);
+
+      WaterSortSearch off = new WaterSortSearch(grid2);
+      off.getMovePruning().setEnabled(rule, false);
+      SearchResult unpruned = off.solve("UC");
+      assertEquals(0, off.getMovePruning().getCount(rule));
+
+      assertEquals(all.getPathCost(), pruned.getPathCost());
+      assertEquals(all.getPathCost(), unpruned.getPathCost());
+      Checker pc = new Checker(grid2);
+      assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, unpruned.toString().replace(" ", "") + ";"));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testa6() throws Exception {
+    // Macro moves are opt-in and may give up the cheapest plan, but never a valid one
+    String[] grids = { grid0, grid1, grid2, grid3, grid4 };
+    long chained = 0;
+    for (String grid : grids) {
+      WaterSortSearch search = new WaterSortSearch(grid);
+      assertFalse(search.getMovePruning().isEnabled(MovePruning.Rule.MACRO_MOVES));
+      search.getMovePruning().setEnabled(MovePruning.Rule.MACRO_MOVES, true);
+      SearchResult result = search.solve("AS1");
+      chained += search.getMovePruning().getCount(MovePruning.Rule.MACRO_MOVES);
+      Checker pc = new Checker(grid);
+      assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid, result.toString().replace(" ", "") + ";"));
+    }
+    assertTrue(chained > 0);
+  }
+
   @Test(timeout = 60000)
   public void testb0() throws Exception {
     String solution = WaterSortSearch.solve(grid0, "DF", false);
@@ -173,6 +246,59 @@ public class PublicTests {
     assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
   }
 
+  @Test(timeout = 60000)
+  public void testc5() throws Exception {
+    // Grows well past the load factor, on and off the heap, with only 64 distinct
+    // hashes (zero among them) so most keys share a hash with others
+    for (boolean offHeap : new boolean[] { false, true }) {
+      ClosedSet set = new ClosedSet(2, 16, offHeap, true);
+      assertEquals(offHeap, set.isOffHeap());
+      int count = 5000;
+      for (int i = 0; i < count; i++) {
+        assertTrue(set.put(new long[] { i, ~i }, i % 64, -i - 1));
+        assertTrue(set.loadFactor() <= 0.7);
+      }
+      assertEquals(count, set.size());
+      assertTrue(set.capacity() >= count / 0.7);
+      for (int i = 0; i < count; i++) {
+        assertEquals(-i - 1, set.get(new long[] { i, ~i }, i % 64, Integer.MIN_VALUE));
+        assertTrue(set.contains(new long[] { i, ~i }, i % 64));
+        // Same hash, different key
+        assertEquals(Integer.MIN_VALUE, set.get(new long[] { i, i }, i % 64, Integer.MIN_VALUE));
+        assertFalse(set.contains(new long[] { i + count, ~i }, i % 64));
+      }
+      for (int i = 0; i < count; i += 2) {
+        assertFalse(set.put(new long[] { i, ~i }, i % 64, i));
+      }
+      for (int i = 0; i < count; i++) {
+        assertEquals(i % 2 == 0 ? i : -i - 1, set.get(new long[] { i, ~i }, i % 64, Integer.MIN_VALUE));
+      }
+      assertEquals(count, set.size());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testc6() throws Exception {
+    for (boolean offHeap : new boolean[] { false, true }) {
+      ClosedSet set = new ClosedSet(1, 16, offHeap);
+      for (int i = 0; i < 1000; i++) {
+        assertTrue(set.add(new long[] { i }, i % 8));
+        assertFalse(set.add(new long[] { i }, i % 8));
+      }
+      assertEquals(1000, set.size());
+      for (int i = 0; i < 1000; i++) {
+        assertTrue(set.contains(new long[] { i }, i % 8));
+        assertFalse(set.contains(new long[] { i }, (i + 1) % 8));
+      }
+      try {
+        set.get(new long[] { 0 }, 0, -1);
+        fail("A set without values has no values to get");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+    }
+  }
+
   @Test(timeout = 60000)
   public void testd0() throws Exception {
     String solution = WaterSortSearch.solve(grid0, "ID", false);
@@ -334,6 +460,45 @@ public class PublicTests {
     assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
   }
 
+  @Test(timeout = 60000)
+  public void testg5() throws Exception {
+    // A cheaper path to a queued state replaces its entry instead of adding a second one
+    IndexedOpenList open = new IndexedOpenList(new ClosedSet(1, 16, false, true), true);
+    long[] state = { 42L };
+    Node expensive = new Node(state, 7L, null, Node.NO_MOVE, 5, 0);
+    Node cheaper = new Node(state, 7L, null, Node.NO_MOVE, 3, 0);
+    assertTrue(open.offer(expensive, state, 7L, 5, 0));
+    assertTrue(open.offer(cheaper, state, 7L, 3, 0));
+    assertFalse(open.offer(new Node(state, 7L, null, Node.NO_MOVE, 4, 0), state, 7L, 4, 0));
+    assertEquals(1, open.size());
+    assertEquals(1, open.knownStates());
+    assertEquals(1, open.getDecreasedKeys());
+    assertSame(cheaper, open.poll());
+    assertNull(open.poll());
+    assertTrue(open.isEmpty());
+  }
+
+  @Test(timeout = 60000)
+  public void testg6() throws Exception {
+    // A cheaper path to a closed state reopens it only when reopening is enabled
+    for (boolean reopen : new boolean[] { true, false }) {
+      IndexedOpenList open = new IndexedOpenList(new ClosedSet(1, 16, false, true), reopen);
+      long[] state = { 42L };
+      Node first = new Node(state, 7L, null, Node.NO_MOVE, 5, 0);
+      assertTrue(open.offer(first, state, 7L, 5, 0));
+      assertSame(first, open.poll());
+      assertFalse(open.accepts(state, 7L, 5));
+      assertFalse(open.offer(new Node(state, 7L, null, Node.NO_MOVE, 5, 0), state, 7L, 5, 0));
+
+      Node cheaper = new Node(state, 7L, null, Node.NO_MOVE, 3, 0);
+      assertEquals(reopen, open.accepts(state, 7L, 3));
+      assertEquals(reopen, open.offer(cheaper, state, 7L, 3, 0));
+      assertEquals(reopen ? 1 : 0, open.getReopened());
+      assertEquals(reopen ? cheaper : null, open.poll());
+      assertEquals(1, open.knownStates());
+    }
+  }
+
   @Test(timeout = 60000)
   public void testh0() throws Exception {
     String solution = WaterSortSearch.solve(grid0, "AS2", false);
@@ -375,6 +540,825 @@ public class PublicTests {
     assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
   }
 
+  @Test(timeout = 60000)
+  public void testi0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "PAS1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testi1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "PAS1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testi2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "PAS1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testi3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "PAS1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testi4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "PAS1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testj0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "PAS2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testj1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "PAS2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testj2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "PAS2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testj3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "PAS2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testj4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "PAS2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testk0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "PBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testk1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "PBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testk2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "PBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testk3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "PBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testk4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "PBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testl0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "IDA1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testl1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "IDA1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testl2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "IDA1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testl3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "IDA1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testl4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "IDA1", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testm0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "IDA2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testm1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "IDA2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testm2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "IDA2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testm3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "IDA2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testm4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "IDA2", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testn0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "AS3", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testn1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "AS3", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testn2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "AS3", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testn3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "AS3", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testn4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "AS3", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testo0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "AS4", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testo1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "AS4", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testo2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "AS4", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testo3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "AS4", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testo4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "AS4", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testp0() throws Exception {
+    String solution = solveWithPatternDatabase(grid0, 3, 4, 2);
+    // Admissible, so as cheap as A* with the misplaced-layers heuristic
+    assertEquals(WaterSortSearch.solve(grid0, "AS1", false).split(";")[1], solution.split(";")[1]);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testp1() throws Exception {
+    String solution = solveWithPatternDatabase(grid1, 5, 4, 3);
+    // Admissible, so as cheap as A* with the misplaced-layers heuristic
+    assertEquals(WaterSortSearch.solve(grid1, "AS1", false).split(";")[1], solution.split(";")[1]);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testp2() throws Exception {
+    String solution = solveWithPatternDatabase(grid2, 5, 4, 3);
+    // Admissible, so as cheap as A* with the misplaced-layers heuristic
+    assertEquals(WaterSortSearch.solve(grid2, "AS1", false).split(";")[1], solution.split(";")[1]);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testp3() throws Exception {
+    String solution = solveWithPatternDatabase(grid3, 6, 4, 5);
+    // Admissible, so as cheap as A* with the misplaced-layers heuristic
+    assertEquals(WaterSortSearch.solve(grid3, "AS1", false).split(";")[1], solution.split(";")[1]);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testp4() throws Exception {
+    String solution = solveWithPatternDatabase(grid4, 6, 3, 4);
+    // Admissible, so as cheap as A* with the misplaced-layers heuristic
+    assertEquals(WaterSortSearch.solve(grid4, "AS1", false).split(";")[1], solution.split(";")[1]);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  // Builds the database into a temporary directory, solves with AS5 and removes both again
+  private static String solveWithPatternDatabase(String grid, int bottles, int capacity, int colors)
+      throws Exception {
+    Path directory = Files.createTempDirectory("pdb");
+    String previous = System.getProperty("watersort.pdb.dir");
+    try {
+      int patternSize = PatternDatabaseHeuristic.patternSize();
+      PatternDatabase.build(bottles, capacity, colors, patternSize,
+          directory.resolve(PatternDatabase.fileName(bottles, capacity, colors, patternSize)));
+      System.setProperty("watersort.pdb.dir", directory.toString());
+      return WaterSortSearch.solve(grid, "AS5", false);
+    } finally {
+      if (previous == null) {
+        System.clearProperty("watersort.pdb.dir");
+      } else {
+        System.setProperty("watersort.pdb.dir", previous);
+      }
+      try (Stream<Path> files = Files.walk(directory)) {
+        for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testq0() throws Exception {
+    String solution = solveWithProperty(grid0, "SMA1", "watersort.sma.maxNodes", "500");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testq1() throws Exception {
+    String solution = solveWithProperty(grid1, "SMA1", "watersort.sma.maxNodes", "500");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testq2() throws Exception {
+    String solution = solveWithProperty(grid2, "SMA1", "watersort.sma.maxNodes", "500");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testq3() throws Exception {
+    String solution = solveWithProperty(grid3, "SMA1", "watersort.sma.maxNodes", "500");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testq4() throws Exception {
+    String solution = solveWithProperty(grid4, "SMA1", "watersort.sma.maxNodes", "500");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testq5() throws Exception {
+    // Dead ends are freed, so a budget of a few dozen nodes still finds the cheapest plan
+    String solution = solveWithProperty(grid3, "SMA1", "watersort.sma.maxNodes", "30");
+    assertEquals(WaterSortSearch.solve(grid3, "AS1", false).split(";")[1], solution.split(";")[1]);
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution.replace(" ", "") + ";"));
+  }
+
+  @Test(timeout = 60000)
+  public void tests0() throws Exception {
+    String solution = solveWithProperty(grid0, "UC", "watersort.deltaNodes", "4");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void tests1() throws Exception {
+    String solution = solveWithProperty(grid1, "UC", "watersort.deltaNodes", "4");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void tests2() throws Exception {
+    String solution = solveWithProperty(grid2, "UC", "watersort.deltaNodes", "4");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void tests3() throws Exception {
+    String solution = solveWithProperty(grid3, "UC", "watersort.deltaNodes", "4");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void tests4() throws Exception {
+    String solution = solveWithProperty(grid4, "UC", "watersort.deltaNodes", "4");
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testt0() throws Exception {
+    // Expansion counts belong to one solve, repeating it must report the same count
+    String first = WaterSortSearch.solve(grid1, "AS1", false);
+    String second = WaterSortSearch.solve(grid1, "AS1", false);
+    assertEquals(first.split(";")[2], second.split(";")[2]);
+  }
+
+  @Test(timeout = 60000)
+  public void testu0() throws Exception {
+    PuzzleGenerator generator = new PuzzleGenerator(6, 4, 4);
+    assertEquals(generator.generate(60, 7), generator.generate(60, 7));
+    for (int seed = 0; seed < 5; seed++) {
+      String grid = generator.generate(60, seed);
+      String solution = WaterSortSearch.solve(grid, "AS1", false);
+      solution = solution.replace(" ", "") + ";";
+      Checker pc = new Checker(grid);
+      assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid, solution));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testv0() throws Exception {
+    String[] grids = { grid0, grid1, grid2, grid3, grid4 };
+    List<BatchSolver.Job> jobs = new ArrayList<>();
+    for (String grid : grids) {
+      jobs.add(new BatchSolver.Job(grid, "AS1"));
+    }
+    try (BatchSolver solver = new BatchSolver(2, 2, 0, true)) {
+      List<BatchSolver.Outcome> outcomes = solver.solveAll(jobs);
+      for (int i = 0; i < grids.length; i++) {
+        BatchSolver.Outcome outcome = outcomes.get(i);
+        assertEquals(i, outcome.getIndex());
+        assertEquals(BatchSolver.Status.SOLVED, outcome.getStatus());
+        assertEquals(WaterSortSearch.solve(grids[i], "AS1", false), outcome.toString());
+        String solution = outcome.toString().replace(" ", "") + ";";
+        Checker pc = new Checker(grids[i]);
+        assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grids[i], solution));
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testv1() throws Exception {
+    // Breadth-first search on a large puzzle runs far past the timeout and is cancelled
+    String large = new PuzzleGenerator(9, 4, 7).generate(300, 1);
+    List<BatchSolver.Job> jobs = Arrays.asList(new BatchSolver.Job(large, "BF", 200),
+        new BatchSolver.Job(grid1, "GR2"), new BatchSolver.Job("3;4", "AS1"));
+    List<BatchSolver.Outcome> outcomes = new ArrayList<>();
+    try (BatchSolver solver = new BatchSolver(2, 1, 0, false)) {
+      solver.solve(jobs.stream(), false, outcomes::add);
+    }
+    assertEquals(3, outcomes.size());
+    for (BatchSolver.Outcome outcome : outcomes) {
+      BatchSolver.Status expected = outcome.getIndex() == 0 ? BatchSolver.Status.TIMED_OUT
+          : outcome.getIndex() == 1 ? BatchSolver.Status.SOLVED : BatchSolver.Status.FAILED;
+      assertEquals(expected, outcome.getStatus());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testv2() throws Exception {
+    // Closing mid-batch cancels the running job and drops the queued ones, and solveAll
+    // still returns an outcome for each of them
+    String large = new PuzzleGenerator(9, 4, 7).generate(300, 1);
+    List<BatchSolver.Job> jobs = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      jobs.add(new BatchSolver.Job(large, "BF"));
+    }
+    BatchSolver solver = new BatchSolver(1, 4, 0, false);
+    Thread closer = new Thread(() -> {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      solver.close();
+    });
+    closer.start();
+    List<BatchSolver.Outcome> outcomes = solver.solveAll(jobs);
+    closer.join();
+    assertEquals(jobs.size(), outcomes.size());
+    for (BatchSolver.Outcome outcome : outcomes) {
+      assertEquals(BatchSolver.Status.CANCELLED, outcome.getStatus());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testw0() throws Exception {
+    String[] grids = { grid0, grid1, grid2, grid3, grid4 };
+    SolveServer server = new SolveServer(new InetSocketAddress("localhost", 0), 2, new BatchSolver(2, 4, 0, true));
+    server.start();
+    try {
+      String base = "http://localhost:" + server.getPort();
+      StringBuilder batch = new StringBuilder();
+      for (String grid : grids) {
+        batch.append("AS1 ").append(grid).append('\n');
+      }
+      String[] lines = post(base + "/batch", batch.toString()).split("\n");
+      assertEquals(grids.length, lines.length);
+      for (int i = 0; i < grids.length; i++) {
+        assertEquals(WaterSortSearch.solve(grids[i], "AS1", false), lines[i]);
+        String solution = lines[i].replace(" ", "") + ";";
+        Checker pc = new Checker(grids[i]);
+        assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grids[i], solution));
+      }
+      String single = post(base + "/solve?format=json", "GR2 " + grid1);
+      assertTrue(single.startsWith("{\"index\":0,\"status\":\"SOLVED\""));
+      String metrics = post(base + "/metrics", "");
+      assertTrue(metrics.contains("jobs 6\n"));
+      assertTrue(metrics.contains("solved 6\n"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static String post(String url, String body) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    assertEquals(200, connection.getResponseCode());
+    try (InputStream in = connection.getInputStream()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testx0() throws Exception {
+    // grid1 with its bottles reordered and b renamed to g
+    String shuffled = "5;4;e,e,e,e;g,y,r,r;e,e,e,e;y,r,g,y;g,y,r,g;";
+    Path file = Files.createTempFile("solutions", ".log");
+    try {
+      try (SolutionCache cache = new SolutionCache(16, 1 << 20, file)) {
+        String first = cache.solve(grid1, "AS1");
+        assertEquals(WaterSortSearch.solve(grid1, "AS1", false), first);
+        String second = cache.solve(shuffled, "AS1");
+        assertEquals(1, cache.getHits());
+        assertEquals(first.split(";")[1], second.split(";")[1]);
+        Checker pc = new Checker(shuffled);
+        assertTrue("The output actions do not lead to a goal state.",
+            pc.applyPlan(shuffled, second.replace(" ", "") + ";"));
+      }
+      try (SolutionCache cache = new SolutionCache(1, 1 << 20, file)) {
+        assertEquals(1, cache.size());
+        cache.solve(shuffled, "AS1");
+        assertEquals(1, cache.getHits());
+        cache.solve(grid0, "AS1");
+        assertEquals(1, cache.size());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testx1() throws Exception {
+    // A record cut short by a crash is skipped on replay and the next one starts on a new line
+    Path file = Files.createTempFile("solutions", ".log");
+    try {
+      try (SolutionCache cache = new SolutionCache(16, 1 << 20, file)) {
+        cache.solve(grid1, "AS1");
+        cache.solve(grid0, "AS1");
+      }
+      // Drop the newline and the last digit of grid0's move count
+      byte[] log = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(log, log.length - 2));
+      try (SolutionCache cache = new SolutionCache(16, 1 << 20, file)) {
+        assertEquals(1, cache.size());
+        cache.solve(grid0, "AS1");
+        assertEquals(0, cache.getHits());
+      }
+      try (SolutionCache cache = new SolutionCache(16, 1 << 20, file)) {
+        assertEquals(2, cache.size());
+        String solution = cache.solve(grid0, "AS1");
+        assertEquals(1, cache.getHits());
+        Checker pc = new Checker(grid0);
+        assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution.replace(" ", "") + ";"));
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testz0() throws Exception {
+    // With the optimality requirement the race only ends on a cheapest plan
+    String solution = solveWithProperty(grid3, "PORTFOLIO", "watersort.portfolio.optimal", "true");
+    assertEquals(WaterSortSearch.solve(grid3, "UC", false).split(";")[1], solution.split(";")[1]);
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution.replace(" ", "") + ";"));
+  }
+
+  @Test(timeout = 60000)
+  public void testz1() throws Exception {
+    // Admissible heuristics keep A*, IDA* and HDA* as cheap as uniform cost search
+    String[] grids = { "5;4;b,r,r,r;g,b,b,b;e,e,e,y;e,y,y,y;r,g,g,g;", "3;4;b,a,a,a;a,b,b,b;e,e,e,e;", grid3 };
+    for (String grid : grids) {
+      String optimal = WaterSortSearch.solve(grid, "UC", false).split(";")[1];
+      for (String strategy : new String[] { "AS1", "IDA1", "PAS1", "AS4", "IDA4" }) {
+        assertEquals(strategy + " on " + grid, optimal, WaterSortSearch.solve(grid, strategy, false).split(";")[1]);
+      }
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testz2() throws Exception {
+    // An A* whose heuristic overestimates finishes first with a dearer plan and must not
+    // win a race that requires the cheapest one
+    HeuristicRegistry.register("10", new Heuristic() {
+      @Override
+      public int estimate(StateLayout layout, long[] state) {
+        return 10 * HeuristicRegistry.get("1").estimate(layout, state);
+      }
+
+      @Override
+      public boolean isAdmissible() {
+        return false;
+      }
+    });
+    String grid = "6;4;y,b,y,g;e,e,e,e;e,e,e,e;b,y,g,r;b,r,g,g;y,b,r,r;";
+    String optimal = WaterSortSearch.solve(grid, "UC", false).split(";")[1];
+    assertNotEquals(optimal, WaterSortSearch.solve(grid, "AS10", false).split(";")[1]);
+    // One racer thread runs AS10 to the end before UC starts
+    ExecutorService racers = Executors.newSingleThreadExecutor();
+    try {
+      PortfolioSearch portfolio = new PortfolioSearch(Arrays.asList("AS10", "UC"), true, racers);
+      String solution = portfolio.solve(grid, null).toString();
+      assertEquals(optimal, solution.split(";")[1]);
+      Checker pc = new Checker(grid);
+      assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid, solution.replace(" ", "") + ";"));
+    } finally {
+      racers.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testz3() throws Exception {
+    // With the optimal racer rejected only greedy search finishes, which must not pass as a win
+    Executor onlyFirst = new Executor() {
+      private boolean used;
+
+      @Override
+      public void execute(Runnable racer) {
+        if (used) {
+          throw new RejectedExecutionException("Only one racer");
+        }
+        used = true;
+        racer.run();
+      }
+    };
+    try {
+      new PortfolioSearch(Arrays.asList("GR2", "UC"), true, onlyFirst).solve(grid3, null);
+      fail("A plan without the optimality guarantee was returned");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    try {
+      new PortfolioSearch(Arrays.asList("GR2", "PORTFOLIO"), false);
+      fail("A nested portfolio was accepted");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  private static String solveWithProperty(String grid, String strategy, String property, String value) {
+    System.setProperty(property, value);
+    try {
+      return WaterSortSearch.solve(grid, strategy, false);
+    } finally {
+      System.clearProperty(property);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testr0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "EBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testr1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "EBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testr2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "EBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testr3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "EBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testr4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "EBF", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testr5() throws Exception {
+    // Tiny runs, so the goal turns up while spilled runs of its layer are still on disk
+    Path directory = Files.createTempDirectory("ebf");
+    System.setProperty("watersort.ebf.dir", directory.toString());
+    try {
+      String solution = solveWithProperty(grid4, "EBF", "watersort.ebf.runRecords", "2");
+      solution = solution.replace(" ", "") + ";";
+      Checker pc = new Checker(grid4);
+      assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals(0, files.count());
+      }
+    } finally {
+      System.clearProperty("watersort.ebf.dir");
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testy0() throws Exception {
+    String solution = WaterSortSearch.solve(grid0, "PORTFOLIO", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid0);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid0, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testy1() throws Exception {
+    String solution = WaterSortSearch.solve(grid1, "PORTFOLIO", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid1);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid1, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testy2() throws Exception {
+    String solution = WaterSortSearch.solve(grid2, "PORTFOLIO", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid2);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid2, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testy3() throws Exception {
+    String solution = WaterSortSearch.solve(grid3, "PORTFOLIO", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid3);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid3, solution));
+  }
+
+  @Test(timeout = 60000)
+  public void testy4() throws Exception {
+    String solution = WaterSortSearch.solve(grid4, "PORTFOLIO", false);
+    solution = solution.replace(" ", "") + ";";
+    Checker pc = new Checker(grid4);
+    assertTrue("The output actions do not lead to a goal state.", pc.applyPlan(grid4, solution));
+  }
+
 }
 
 class Checker {